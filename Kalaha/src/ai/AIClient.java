@@ -29,6 +29,71 @@ public class AIClient implements Runnable
     static final boolean SCORE_DIFF_EVAL = true; // False: Use raw AI score, True: Use score diff between AI and opponent
     static final int LOSS_BIAS = 100; // Amount of points subtracted from score if state looses game for AI (drag game as long as possible)
     static final int TIME_LIMIT_MS = 5000;
+    static final int EBF_MIN_MS = 5; // Iterations faster than this give no useful branching factor estimate
+    
+    static final int TT_SIZE_MB = 64; // Transposition table size, kept for the whole game
+    
+    // Transposition table, persistent across IDDFS iterations and our moves
+    private TranspositionTable tt = new TranspositionTable(TT_SIZE_MB);
+    
+    // Board received from the server, parsed in place every turn
+    private final GameState currentBoard = new GameState();
+    
+    // Negamax searcher, created once the player is known
+    private Searcher searcher;
+    
+    // Number of search threads, more than one splits the root moves between threads
+    static final int SEARCH_THREADS = Integer.getInteger("kalaha.threads", 1);
+    private int threads = SEARCH_THREADS;
+    private RootParallelSearch parallel;
+    
+    // Search modes
+    public static final int MODE_IDDFS = 0; // Iterative deepening, root-parallel with several threads
+    public static final int MODE_LAZY_SMP = 1; // Lazy SMP, threads share the transposition table
+    public static final int MODE_YBWC = 2; // Young Brothers Wait, parallel alpha-beta with split points
+    public static final int MODE_PVS = 3; // Iterative deepening with PVS and aspiration windows
+    public static final int MODE_MTDF = 4; // Iterative deepening with MTD(f) null-window passes
+    public static final int MODE_TURNS = 5; // Iterative deepening over whole turns (extra moves included)
+    static final int SEARCH_MODE = parseMode(System.getProperty("kalaha.mode", "iddfs"));
+    private int mode = SEARCH_MODE;
+    private LazySmpSearch lazySmp;
+    private YbwcSearch ybwc;
+    
+    // Turn search, the rest of the chosen turn is played without searching again
+    private TurnSearcher turnSearcher;
+    private int[] plannedMoves = new int[16];
+    private long[] plannedHashes = new long[16];
+    private int plannedCount;
+    private int plannedNext;
+    
+    // Quiescence search of captures and extra moves at the depth limit
+    static final boolean QUIESCENCE = Boolean.parseBoolean(System.getProperty("kalaha.quiescence", "true"));
+    private boolean quiescence = QUIESCENCE;
+    
+    // Opening book file, see OpeningBookBuilder
+    static final String BOOK_FILE = System.getProperty("kalaha.book");
+    private OpeningBook book;
+    private boolean bookOpened;
+    
+    // Endgame tablebase directory, see TablebaseGenerator
+    static final String TABLEBASE_DIR = System.getProperty("kalaha.tablebase");
+    private Tablebase tablebase;
+    
+    // Proof-number solver, used when at most this many seeds are left in the ambos (0 for never)
+    static final int SOLVER_SEEDS = Integer.getInteger("kalaha.solver.seeds", 0);
+    static final int SOLVER_MEMORY_MB = Integer.getInteger("kalaha.solver.mb", 64);
+    private int solverSeeds = SOLVER_SEEDS;
+    private DfpnSolver solver;
+    
+    // Pondering: search on the opponent's time
+    static final boolean PONDERING = Boolean.getBoolean("kalaha.ponder");
+    static final int PONDER_MAX_DEPTH = 100;
+    private boolean pondering = PONDERING;
+    private Thread ponderThread;
+    private volatile long ponderHash; // Position expected when it is our turn again
+    private volatile int ponderAnswer; // Our best move in that position
+    private volatile boolean ponderSolved; // True if the answer is searched to the end of the game
+    private volatile int ponderDepth;
     
     /**
      * Creates a new client.
@@ -58,6 +123,19 @@ public class AIClient implements Runnable
         }
     }
     
+    /**
+     * Creates a client for offline use, such as benchmarks and analysis.
+     * It has no GUI and is not connected to a server, and text output
+     * goes to standard out.
+     * 
+     * @param player The player the AI plays as (1 or 2)
+     */
+    public AIClient(int player)
+    {
+        this.player = player;
+        connected = false;
+    }
+    
     /**
      * Starts the client thread.
      */
@@ -99,6 +177,13 @@ public class AIClient implements Runnable
      */
     public void addText(String txt)
     {
+        //Offline clients have no GUI
+        if (text == null)
+        {
+            System.out.println(txt);
+            return;
+        }
+        
         //Don't change this
         text.append(txt + "\n");
         text.setCaretPosition(text.getDocument().getLength());
@@ -169,7 +254,7 @@ public class AIClient implements Runnable
                             //This is the call to the function for making a move.
                             //You only need to change the contents in the getMove()
                             //function.
-                            GameState currentBoard = new GameState(currentBoardStr);
+                            currentBoard.parse(currentBoardStr);
                             int cMove = getMove(currentBoard);
                             
                             //Timer stuff
@@ -182,6 +267,13 @@ public class AIClient implements Runnable
                             {
                                 validMove = true;
                                 addText("Made move " + cMove + " in " + e + " secs");
+                                
+                                //Think on the opponent's time
+                                if (pondering)
+                                {
+                                    currentBoard.makeMove(cMove);
+                                    startPondering(currentBoard);
+                                }
                             }
                         }
                     }
@@ -195,6 +287,7 @@ public class AIClient implements Runnable
         {
             running = false;
         }
+        stopPondering();
         
         try
         {
@@ -217,201 +310,620 @@ public class AIClient implements Runnable
      */
     public int getMove(GameState currentBoard)
     {
-        int myMove = iddfsMiniMaxMove(currentBoard);
+        // One time budget for the whole move, shared by the solver and the search
+        long deadline = System.currentTimeMillis() + TIME_LIMIT_MS;
+        
+        // Use the answer prepared while pondering if the opponent played as expected
+        if (ponderThread != null) {
+            stopPondering();
+            if (ponderHash == currentBoard.getHash()) {
+                addText("P" + this.player + "> PONDER HIT, DEPTH: " + ponderDepth);
+                if (ponderSolved && currentBoard.moveIsPossible(ponderAnswer)) {
+                    return ponderAnswer;
+                }
+            } else {
+                addText("P" + this.player + "> PONDER MISS");
+            }
+        }
+        
+        // Book moves need no search, the book ends where the game leaves it
+        OpeningBook b = getBook();
+        if (b != null) {
+            int bookMove = b.lookup(currentBoard);
+            if (bookMove != 0 && currentBoard.moveIsPossible(bookMove)) {
+                addText("P" + this.player + "> MOVE: " + bookMove + ", BOOK");
+                return bookMove;
+            }
+        }
+        
+        // Play a proved win or draw. Lost positions are left to the search,
+        // which drags the game on and keeps the loss small.
+        if (currentBoard.getSideSeeds(1) + currentBoard.getSideSeeds(2) <= solverSeeds) {
+            int solvedMove = solverMove(currentBoard, deadline);
+            if (solvedMove != 0) {
+                return solvedMove;
+            }
+        }
+        
+        if (mode == MODE_LAZY_SMP) {
+            return lazySmpMove(currentBoard, deadline);
+        }
+        if (mode == MODE_YBWC) {
+            return ybwcMove(currentBoard, deadline);
+        }
+        if (mode == MODE_TURNS) {
+            return turnMove(currentBoard, deadline);
+        }
+        int myMove = iddfsMiniMaxMove(currentBoard, deadline);
         return myMove;
     }
     
+    /**
+     * Proof-number solver: finds the game-theoretic result within half
+     * the time left, leaving the rest for a search if it fails.
+     * 
+     * @param state Game state
+     * @param deadline Time (System.currentTimeMillis()) at which the move must be chosen
+     * @return Move reaching a win or draw, or 0 if lost or not solved
+     */
+    public int solverMove(GameState state, long deadline)
+    {
+        if (solver == null) {
+            solver = new DfpnSolver(SOLVER_MEMORY_MB);
+            solver.setTablebase(getTablebase());
+        }
+        long now = System.currentTimeMillis();
+        int result = solver.solve(state, now + (deadline - now) / 2);
+        int move = solver.getBestMove();
+        addText("P" + this.player + "> SOLVER: " + DfpnSolver.getResultName(result) 
+                + ", NODES: " + solver.getNodes());
+        if ((result == DfpnSolver.WIN || result == DfpnSolver.DRAW) && state.moveIsPossible(move)) {
+            addText("P" + this.player + "> MOVE: " + move + ", SOLVED " + DfpnSolver.getResultName(result));
+            return move;
+        }
+        return 0;
+    }
+    
+    /**
+     * Sets the number of seeds left in the ambos from which on the
+     * proof-number solver is tried before searching.
+     * 
+     * @param seeds Seed threshold, 0 to never use the solver
+     */
+    public void setSolverSeeds(int seeds)
+    {
+        solverSeeds = seeds;
+    }
+    
+    /**
+     * Lazy SMP search: all threads run iterative deepening and share
+     * the transposition table.
+     * 
+     * @param state Game state
+     * @param deadline Time (System.currentTimeMillis()) at which the search ends
+     * @return Best move
+     */
+    public int lazySmpMove(GameState state, long deadline)
+    {
+        tt.newSearch();
+        if (lazySmp == null || lazySmp.getThreads() != threads) {
+            if (lazySmp != null) {
+                lazySmp.shutdown();
+            }
+            lazySmp = new LazySmpSearch(player, threads, tt);
+        }
+        lazySmp.setQuiescence(quiescence);
+        lazySmp.setTablebase(getTablebase());
+        
+        int chosenMove = lazySmp.search(state, deadline);
+        
+        addText("P" + this.player + "> MOVE: " + chosenMove + ", LAZY SMP DEPTH: " 
+                + lazySmp.getCompletedDepth() + ", SCORE EVAL: " + lazySmp.getBestScore());
+        addText("P" + this.player + "> THREADS: " + threads + ", NODES: " + lazySmp.getNodes()
+                + ", TT PROBES: " + tt.getProbes() + ", HITS: " + tt.getHits());
+        return chosenMove;
+    }
+    
     /**
      * IDDFS (Iterative Deepening Depth-First-Search) MiniMax method
-     * It will iterate through increasing max-depth and execute miniMaxAlphaBeta
-     * method, which recursively does MiniMax with Alpha-Beta optimization
+     * It will iterate through increasing max-depth and execute the negamax
+     * search in {@link Searcher}, which does MiniMax with Alpha-Beta optimization
      * @param state Game state
      * @return Best move
      */
     public int iddfsMiniMaxMove(GameState state)
+    {
+        return iddfsMiniMaxMove(state, System.currentTimeMillis() + TIME_LIMIT_MS);
+    }
+    
+    /**
+     * IDDFS MiniMax method with a given deadline, see {@link #iddfsMiniMaxMove(GameState)}
+     * @param state Game state
+     * @param deadline Time (System.currentTimeMillis()) at which the search ends
+     * @return Best move
+     */
+    public int iddfsMiniMaxMove(GameState state, long deadline)
     {
         int maxDepthIter = 0;
         int chosenMove = 1;
         int chosenMoveScoreDiff = 0;
-        long deadline = System.currentTimeMillis() + TIME_LIMIT_MS;
+        
+        // New search generation, entries from earlier moves are replaced first
+        tt.newSearch();
+        Searcher s = getSearcher();
+        s.newSearch(deadline);
+        s.setPvs(mode == MODE_PVS);
+        s.setQuiescence(quiescence);
+        // PVS and MTD(f) run on the serial searcher only, the root-parallel search is plain alpha-beta
+        RootParallelSearch p = (threads > 1 && mode != MODE_PVS && mode != MODE_MTDF) ? getParallelSearch() : null;
+        if (p != null) {
+            p.setQuiescence(quiescence);
+            p.setTablebase(getTablebase());
+            p.newSearch(deadline);
+        } else if (threads > 1) {
+            addText("P" + this.player + "> THREADS: " + threads + " NOT USED, SEARCH MODE IS SERIAL");
+        }
+        
+        // Effective branching factor: how much longer each iteration takes than the one before
+        long lastIterMs = 0;
+        double ebf = 0;
+        String stopReason = "";
         
         while(true) { // Iterate max-depth from 1, 2, 3, ..., N
             maxDepthIter++;
+            long iterStart = System.currentTimeMillis();
             
-            // Evaluate choices through recursive miniMaxAlphaBeta
-            int[] result = miniMaxAlphaBeta(state, maxDepthIter, 
-                        Integer.MIN_VALUE, Integer.MAX_VALUE, true, deadline);
-            
-            int resultMove = result[0];
-            int resultScore = result[1];
-            int timeBreak = result[2];
-            int deepestRemainingDepth = result[3];
+            // Evaluate choices through recursive negamax search
+            // (root moves split between threads in parallel mode)
+            int resultScore;
+            boolean aborted;
+            boolean solved;
+            if (p != null) {
+                resultScore = p.search(state, maxDepthIter, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+                aborted = p.isAborted();
+                solved = p.isSolved();
+            } else if (mode == MODE_MTDF) {
+                // Null-window passes, starting from the previous iteration's score
+                resultScore = s.mtdf(state, maxDepthIter, chosenMoveScoreDiff);
+                aborted = s.isAborted();
+                solved = s.isSolved();
+            } else if (mode == MODE_PVS && maxDepthIter > 1) {
+                // Aspiration window around the previous iteration's score
+                resultScore = s.aspirationSearch(state, maxDepthIter, chosenMoveScoreDiff);
+                aborted = s.isAborted();
+                solved = s.isSolved();
+            } else {
+                resultScore = s.search(state, maxDepthIter, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+                aborted = s.isAborted();
+                solved = s.isSolved();
+            }
             
             // If we encounter time-break in this max-depth iter, 
-            // then we will use previous max-depth iteration results
-            if (timeBreak == 1) {
+            // then we will use previous max-depth iteration results,
+            // unless root moves were completed at this depth. The previous best
+            // move is searched first, so its new score is the baseline.
+            // MTD(f) passes only give bounds, so their partial results are not used.
+            if (aborted) {
+                if (p == null && mode != MODE_MTDF && s.getPartialMove() != 0) {
+                    chosenMove = s.getPartialMove();
+                    chosenMoveScoreDiff = s.getPartialScore();
+                    stopReason = ", PARTIAL";
+                }
                 break;
             }
             
-            chosenMove = resultMove;
+            chosenMove = (p != null) ? p.getBestMove() : s.getBestMove();
             chosenMoveScoreDiff = resultScore;
+            s.setPvMove(chosenMove);
+            if (p != null) {
+                p.setPvMove(chosenMove);
+            }
             
-            // Have we reached the end in the tree? Check deepest remainingDepth reached
-            // ... must be 0 to continue iterating further to next max-depth
-            // ... otherwise it means that in this iteration we reached end of the decision tree
-            if (deepestRemainingDepth != 0) {
+            // Have we reached the end in the tree? If no line was cut off by
+            // the depth limit, further max-depth increase won't change anything
+            if (solved) {
                 break;
-            }            
+            }
+            
+            // Don't start an iteration that is not expected to get through
+            // its first half (where the previous best move is searched) in time
+            long now = System.currentTimeMillis();
+            long iterMs = now - iterStart;
+            if (lastIterMs >= EBF_MIN_MS) {
+                ebf = (double)iterMs / lastIterMs;
+            }
+            lastIterMs = iterMs;
+            if (ebf > 0 && now + iterMs * ebf / 2 > deadline) {
+                stopReason = String.format(", SKIPPED NEXT (EBF %.1f)", ebf);
+                break;
+            }
+        }
+        
+        if (p != null) {
+            addText("P" + this.player + "> MOVE: " + chosenMove + ", IDDFS MAX-DEPTH: " 
+                    + maxDepthIter + ", SCORE EVAL: " + chosenMoveScoreDiff);
+            addText("P" + this.player + "> THREADS: " + p.getThreads() + ", NODES: " + p.getNodes());
+            return chosenMove;
         }
         
         addText("P" + this.player + "> MOVE: " + chosenMove + ", IDDFS MAX-DEPTH: " 
-                + maxDepthIter + ", SCORE EVAL: " + chosenMoveScoreDiff);
+                + maxDepthIter + ", SCORE EVAL: " + chosenMoveScoreDiff + stopReason);
+        addText("P" + this.player + "> NODES: " + s.getNodes() + ", SEL-DEPTH: " + s.getSelDepth()
+                + ", QUIESCENCE: " + s.getQuiescenceNodes() + String.format(" (%.1f%%)", 
+                100.0 * s.getQuiescenceNodes() / Math.max(1, s.getNodes()))
+                + ", TABLEBASE HITS: " + s.getTablebaseHits());
+        addText("P" + this.player + "> TT PROBES: " + tt.getProbes() + ", HITS: " + tt.getHits()
+                + ", CUTOFFS: " + s.getTtCutoffs());
+        addText("P" + this.player + "> A/B CUTOFFS: " + s.getOrdering().getCutoffs() + ", FIRST MOVE: "
+                + String.format("%.1f%%", s.getOrdering().getFirstMoveCutoffRate()));
+        if (mode == MODE_PVS) {
+            addText("P" + this.player + "> PVS RE-SEARCHES: " + s.getReSearches() + " OF " 
+                    + s.getNullWindowSearches() + String.format(" (%.1f%%)", 
+                    100.0 * s.getReSearches() / Math.max(1, s.getNullWindowSearches()))
+                    + ", ASPIRATION FAILS: " + s.getAspirationFails() + " OF " + s.getAspirationSearches());
+        }
+        if (mode == MODE_MTDF) {
+            addText("P" + this.player + "> MTD(F) PASSES: " + s.getMtdfPasses());
+        }
         return chosenMove;
     }
     
     /**
-     * Recursive MiniMax with Alpha-Beta optimization
+     * Returns the negamax searcher, which keeps its move ordering
+     * history for the whole game.
+     * 
+     * @return Searcher for the AI player
+     */
+    Searcher getSearcher()
+    {
+        if (searcher == null) {
+            searcher = new Searcher(player, tt);
+            searcher.setTablebase(getTablebase());
+        }
+        return searcher;
+    }
+    
+    /**
+     * Returns the opening book, opened on first use from the file
+     * given by the kalaha.book property.
+     * 
+     * @return Opening book, or null if none is used
+     */
+    OpeningBook getBook()
+    {
+        if (!bookOpened && BOOK_FILE != null) {
+            bookOpened = true;
+            try {
+                book = new OpeningBook(new File(BOOK_FILE));
+                addText("P" + this.player + "> OPENING BOOK: " + book.size() + " POSITIONS");
+            } catch (IOException ex) {
+                addText("Error opening book: " + ex.getMessage());
+            }
+        }
+        return book;
+    }
+    
+    /**
+     * Returns the endgame tablebase, opened on first use from the
+     * directory given by the kalaha.tablebase property.
+     * 
+     * @return Tablebase, or null if none is used
+     */
+    Tablebase getTablebase()
+    {
+        if (tablebase == null && TABLEBASE_DIR != null) {
+            try {
+                tablebase = new Tablebase(new File(TABLEBASE_DIR));
+                addText("P" + this.player + "> TABLEBASE: UP TO " + tablebase.getMaxSeeds() + " SEEDS");
+            } catch (IOException ex) {
+                addText("Error opening tablebase: " + ex.getMessage());
+            }
+        }
+        return tablebase;
+    }
+    
+    /**
+     * Returns the root-parallel search, created on first use.
+     * 
+     * @return Parallel search for the AI player
+     */
+    RootParallelSearch getParallelSearch()
+    {
+        if (parallel == null || parallel.getThreads() != threads) {
+            if (parallel != null) {
+                parallel.shutdown();
+            }
+            parallel = new RootParallelSearch(player, threads, tt);
+        }
+        return parallel;
+    }
+    
+    /**
+     * Sets the number of search threads. With more than one thread the
+     * root moves are searched in parallel.
+     * 
+     * @param threads Number of threads (1 for a serial search)
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * IDDFS with the Young Brothers Wait parallel search: the eldest
+     * child of a node is searched before its brothers are split between threads.
+     * 
      * @param state Game state
-     * @param remainingDepth Decreasing remaining depth variable, initially set by IDDFS iteration
-     * @param alpha Alpha value from parents (Integer.MIN_VALUE from IDDFS)
-     * @param beta Beta value from parents (Integer.MAX_VALUE from IDDFS)
-     * @param isMax Flag to determine whether this will be executed as Maximizer or Minimizer
-     * @param deadline IDDFS time deadline for when to cancel MiniMax search
-     * @return Integer array (size 3), [0]: best move, [1]: score diff for chosen move, [2]: time break flag
+     * @param deadline Time (System.currentTimeMillis()) at which the search ends
+     * @return Best move
      */
-    public int[] miniMaxAlphaBeta(GameState state, int remainingDepth, int alpha, int beta, boolean isMax, long deadline)
+    public int ybwcMove(GameState state, long deadline)
     {
-        long currentTime = System.currentTimeMillis();
-        
-        // Initialize return result
-        // For Min/Max node:
-        // [0]: Chosen move for Min/Max
-        // [1]: Score for chosen move
-        // [2]: Flag for time break (0 - no time break happened, 1 - time break happened)
-        // For Leaf node (nodes at max depth, e.g. remainingDepth == 0):
-        // [0]: -1
-        // [1]: Game score difference
-        // [2]: Flag for time break (0 - no time break happened, 1 - time break happened)
-        // [3]: Deepest depth reached relative to remainingDepth
-        //      This will be used to terminate IDDFS if further max-depth increase
-        //      won't change anything
-        int[] result = new int[4];
-        result[0] = -1;
-        result[1] = 0;
-        result[2] = 0;
-        result[3] = remainingDepth;
-        
-        // Time-break condition
-        if (currentTime > deadline) {
-            result[2] = 1; // Turn on time-break bit
-            return result;
+        int maxDepthIter = 0;
+        int chosenMove = 1;
+        int chosenMoveScoreDiff = 0;
+        
+        tt.newSearch();
+        if (ybwc == null || ybwc.getThreads() != threads) {
+            if (ybwc != null) {
+                ybwc.shutdown();
+            }
+            ybwc = new YbwcSearch(player, threads, tt);
         }
+        ybwc.setQuiescence(quiescence);
+        ybwc.setTablebase(getTablebase());
+        ybwc.newSearch(deadline);
         
-        // End-game condition
-        if (state.gameEnded()) {
-            int endScoreDiff = evalGameScore(state);
-            
-            if (endScoreDiff < 0) { // AI looses (bias away from this, drag game as long as possible)
-                result[0] = -1;
-                result[1] = endScoreDiff - LOSS_BIAS;
-                return result;
-            } else { // Game draw (no bias added), diff always 0
-                result[0] = -1;
-                result[1] = endScoreDiff;
-                return result;
+        while(true) { // Iterate max-depth from 1, 2, 3, ..., N
+            maxDepthIter++;
+            int resultScore = ybwc.search(state, maxDepthIter, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+            if (ybwc.isAborted()) {
+                break;
+            }
+            chosenMove = ybwc.getBestMove();
+            chosenMoveScoreDiff = resultScore;
+            ybwc.setPvMove(chosenMove);
+            if (ybwc.isSolved()) {
+                break;
             }
         }
         
-        // Remaining depth condition (we reached end of depth, so this is a leaf node)
-        // Leaf nodes at the bottom simply return their score, which will be propogated upwards
-        if (remainingDepth == 0) {
-            result[0] = -1;
-            result[1] = evalGameScore(state);
-            return result;
+        addText("P" + this.player + "> MOVE: " + chosenMove + ", YBWC MAX-DEPTH: " 
+                + maxDepthIter + ", SCORE EVAL: " + chosenMoveScoreDiff);
+        addText("P" + this.player + "> THREADS: " + threads + ", NODES: " + ybwc.getNodes()
+                + ", SPLIT POINTS: " + ybwc.getSplitPoints() + ", ABORTS: " + ybwc.getAborts()
+                + ", IDLE: " + String.format("%.1f%%", 100.0 * ybwc.getIdleNanos()
+                        / Math.max(1, threads * ybwc.getWallNanos())));
+        return chosenMove;
+    }
+    
+    /**
+     * IDDFS over whole turns: the depth counts changes of side, and the
+     * extra moves of the chosen turn are played without searching again.
+     * 
+     * @param state Game state
+     * @param deadline Time (System.currentTimeMillis()) at which the search ends
+     * @return Best move
+     */
+    public int turnMove(GameState state, long deadline)
+    {
+        // Continue the turn chosen by the last search if it went as planned
+        if (plannedNext < plannedCount && plannedHashes[plannedNext] == state.getHash()) {
+            int move = plannedMoves[plannedNext++];
+            addText("P" + this.player + "> MOVE: " + move + ", PLANNED EXTRA MOVE");
+            return move;
         }
         
-        // Current score & Current move
-        int currentMove = -1;
-        int currentScore = 0;
+        int maxDepthIter = 0;
+        int chosenMove = 1;
+        int chosenMoveScoreDiff = 0;
         
-        if (isMax) {
-            currentScore = Integer.MIN_VALUE;
-        } else {
-            currentScore = Integer.MAX_VALUE;
+        if (turnSearcher == null) {
+            turnSearcher = new TurnSearcher(player, new TranspositionTable(TT_SIZE_MB));
         }
-
-        // Begin DFS loop for visiting next move nodes
-        for (int i = 1; i < 7; i++) {
-            // Skip child node if move to it isn't legal
-            if (!state.moveIsPossible(i)) {
-                continue;
+        TurnSearcher s = turnSearcher;
+        s.getTranspositionTable().newSearch();
+        s.newSearch(deadline);
+        plannedCount = 0;
+        plannedNext = 0;
+        
+        while(true) { // Iterate max-depth from 1, 2, 3, ..., N turns
+            maxDepthIter++;
+            int resultScore = s.search(state, maxDepthIter, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+            if (s.isAborted()) {
+                break;
             }
-            
-            GameState copiedState = state.clone();
-            copiedState.makeMove(i);
-            int[] subResult = miniMaxAlphaBeta(copiedState, remainingDepth - 1, 
-                    alpha, beta, !isMax, deadline);
-            int score = subResult[1];
-            
-            // Update deepest depth reached
-            if (subResult[3] < result[3]) {
-                result[3] = subResult[3];
+            chosenMove = s.getBestMove();
+            chosenMoveScoreDiff = resultScore;
+            s.setPvMove(chosenMove);
+            if (plannedMoves.length < s.getBestTurnLength()) {
+                plannedMoves = new int[s.getBestTurnLength()];
+                plannedHashes = new long[s.getBestTurnLength()];
             }
-            
-            // Another time-break check (propogate time break from deeper iterations)
-            if (subResult[2] == 1) {
-                result[2] = 1;
-                return result;
+            plannedCount = s.getBestTurn(plannedMoves);
+            if (s.isSolved()) {
+                break;
             }
-            
-            // === ALPHA-BETA LOGIC ===
-            // Branch dropping pattern of Alpha-Beta is fairly simple:
-            //   Max nodes need to satisfy (score <= beta) equation
-            //   Min nodes need to satisfy (score >= alpha) equation
-            //   If they don't, they will stop further iteration and return
-            // = A/B MAXIMIZER PART =
-            if (isMax) {
-                // Parent node is a Minimizer and if it this Maximizer's score
-                // is higher than parent node's beta, then there is no point
-                // evaluating this branch further
-                if (score > beta) {
-                    result[0] = i;
-                    result[1] = score;
-                    return result;
-                }
-                
-                alpha = Math.max(alpha, score);
-                
-                if (currentScore < score) {
-                    currentScore = score;
-                    currentMove = i;
-                }                
+        }
+        
+        // Positions where the extra moves of the turn are expected, no plan
+        // is kept if no iteration completed
+        if (plannedCount > 0) {
+            GameState next = state.clone();
+            for (int i = 0; i < plannedCount; i++) {
+                plannedHashes[i] = next.getHash();
+                next.makeMove(plannedMoves[i]);
             }
+            plannedNext = 1;
+        } else {
+            plannedNext = 0;
+        }
+        
+        addText("P" + this.player + "> MOVE: " + chosenMove + ", TURN MAX-DEPTH: " 
+                + maxDepthIter + ", SCORE EVAL: " + chosenMoveScoreDiff + ", TURN LENGTH: " + plannedCount);
+        addText("P" + this.player + "> NODES: " + s.getNodes() + ", TURNS: " + s.getTurns()
+                + ", TRANSPOSED CHAINS: " + s.getTranspositions() + ", TT CUTOFFS: " + s.getTtCutoffs());
+        return chosenMove;
+    }
+    
+    /**
+     * Starts searching the position the opponent moves from in the
+     * background. This fills the transposition table for the positions
+     * after each reply, so our next search starts from deeper results.
+     * The reply the search expects, and our answer to it, are kept ready.
+     * 
+     * @param state Game state after our move
+     */
+    private void startPondering(GameState state)
+    {
+        stopPondering();
+        if (state.gameEnded() || state.getNextPlayer() == player) {
+            return;
+        }
+        
+        final GameState pos = state.clone();
+        final Searcher s = getSearcher();
+        // The table is aged by the next move search, not here
+        s.newSearch(Long.MAX_VALUE);
+        ponderHash = 0;
+        ponderAnswer = 0;
+        ponderSolved = false;
+        ponderDepth = 0;
+        
+        ponderThread = new Thread(new Runnable() {
+            public void run() {
+                ponder(s, pos);
+            }
+        }, "Ponder");
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+    
+    /**
+     * Stops pondering and waits for the ponder thread to finish.
+     */
+    private void stopPondering()
+    {
+        if (ponderThread == null) {
+            return;
+        }
+        getSearcher().stop();
+        try {
+            ponderThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        ponderThread = null;
+    }
+    
+    /**
+     * Iterative deepening on the opponent's position, run by the ponder
+     * thread until stopped. After each iteration the expected position at
+     * our next turn, and our best move there, are taken from the principal
+     * variation (continued from the transposition table where it is cut off).
+     * 
+     * @param s Searcher
+     * @param pos Position with the opponent to move
+     */
+    private void ponder(Searcher s, GameState pos)
+    {
+        int[] pv = new int[PONDER_MAX_DEPTH + 1];
+        for (int depth = 1; depth <= PONDER_MAX_DEPTH; depth++) {
+            s.search(pos, depth, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+            if (s.isAborted()) {
+                return;
+            }
+            s.setPvMove(s.getBestMove());
             
-            // = A/B MINIMIZER PART =
-            if (!isMax) {
-                // Parent node is a Maximizer and if this Minimizer's score
-                // is less than parent node's alpha, then there is no point
-                // evaluating this branch further
-                if (score < alpha) {
-                    result[0] = i;
-                    result[1] = score;
-                    return result;
+            // Follow the expected opponent moves (extra moves included) until it is our turn
+            int n = s.getPv(pv);
+            GameState next = pos.clone();
+            int i = 0;
+            while (next.getNextPlayer() != player && !next.gameEnded()) {
+                int move = (i < n) ? pv[i] : TranspositionTable.getMove(tt.probe(next.getHash()));
+                if (move == 0 || !next.makeMove(move)) {
+                    break;
                 }
-                
-                // Update current values
-                beta = Math.min(beta, score);
-                
-                if (currentScore > score) {
-                    currentScore = score;
-                    currentMove = i;
+                i++;
+            }
+            if (next.getNextPlayer() == player && !next.gameEnded()) {
+                // Past the end of the PV the answer is only solved if the table entry is
+                boolean solved = s.isSolved();
+                int answer;
+                if (i < n) {
+                    answer = pv[i];
+                } else {
+                    long data = tt.probe(next.getHash());
+                    answer = TranspositionTable.getMove(data);
+                    solved = solved && TranspositionTable.getBound(data) == TranspositionTable.EXACT
+                            && TranspositionTable.getDepth(data) == TranspositionTable.DEPTH_SOLVED;
                 }
+                ponderHash = next.getHash();
+                ponderAnswer = answer;
+                ponderSolved = solved;
+                ponderDepth = depth - i;
+            }
+            if (s.isSolved()) {
+                return;
             }
         }
-        
-        result[0] = currentMove;
-        result[1] = currentScore;
-        return result;
+    }
+    
+    /**
+     * Enables or disables pondering (searching on the opponent's time).
+     * 
+     * @param pondering True to ponder
+     */
+    public void setPondering(boolean pondering)
+    {
+        this.pondering = pondering;
+    }
+    
+    /**
+     * Enables or disables the quiescence search at the depth limit.
+     * 
+     * @param quiescence True for quiescence search
+     */
+    public void setQuiescence(boolean quiescence)
+    {
+        this.quiescence = quiescence;
+    }
+    
+    /**
+     * Sets the search mode.
+     * 
+     * @param mode {@link #MODE_IDDFS}, {@link #MODE_LAZY_SMP}, {@link #MODE_YBWC}, {@link #MODE_PVS},
+     * {@link #MODE_MTDF} or {@link #MODE_TURNS}
+     */
+    public void setMode(int mode)
+    {
+        this.mode = mode;
+    }
+    
+    /**
+     * Parses a search mode name.
+     * 
+     * @param name Mode name ("iddfs", "lazysmp", "ybwc", "pvs", "mtdf" or "turns")
+     * @return Search mode
+     */
+    static int parseMode(String name)
+    {
+        if (name.equalsIgnoreCase("lazysmp")) {
+            return MODE_LAZY_SMP;
+        }
+        if (name.equalsIgnoreCase("ybwc")) {
+            return MODE_YBWC;
+        }
+        if (name.equalsIgnoreCase("pvs")) {
+            return MODE_PVS;
+        }
+        if (name.equalsIgnoreCase("mtdf")) {
+            return MODE_MTDF;
+        }
+        if (name.equalsIgnoreCase("turns")) {
+            return MODE_TURNS;
+        }
+        return MODE_IDDFS;
     }
     
     /**
@@ -488,12 +1000,11 @@ public class AIClient implements Runnable
         m = alpha;        
         
         // conanic F2 form
-        for (int i = 1; i < 7; i++) 
+        int moves = state.legalMoves();
+        while (moves != 0) 
         {
-             // Skip child node if move to it isn't legal
-            if (!state.moveIsPossible(i)) {
-                continue;
-            }
+            int i = GameState.firstMove(moves);
+            moves &= moves - 1;
             
             if (cL==0) // return move on level 0
                 lastBestMovie=i;
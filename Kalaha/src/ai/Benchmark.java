@@ -0,0 +1,436 @@
+package ai;
+
+import java.lang.management.ManagementFactory;
+import kalaha.*;
+
+/**
+ * Micro benchmarks for the game engine and the search hot paths.
+ * Reports throughput and heap allocation per operation, so that
+ * regressions show up as numbers.
+ * <p>
+ * Each benchmark is warmed up before it is measured, and the results
+ * are folded into a checksum that is printed at the end so the JIT
+ * cannot remove the benchmarked code.
+ * <p>
+ * Usage: {@code java -cp Kalaha.jar ai.Benchmark [filter] [searchDepth]}
+ * where filter selects benchmarks whose name contains the given text.
+ * <p>
+ * With {@code ai.Benchmark -ttd [depth]} it instead reports the time to reach
+ * a search depth with 1, 2, 4, 8 and 16 search threads, and with
+ * {@code ai.Benchmark -compare [depth]} the nodes and time each iterative
+ * deepening driver needs to reach a depth.
+ */
+public class Benchmark
+{
+    /**
+     * Opening positions (board strings).
+     */
+    public static final String[] OPENING = {
+        "0;6;6;6;6;6;6;0;6;6;6;6;6;6;1",
+        "2;8;2;9;9;0;8;2;8;7;7;0;8;2;1",
+        "2;1;8;8;8;2;8;2;1;8;8;0;8;8;1",
+    };
+
+    /**
+     * Middlegame positions (board strings).
+     */
+    public static final String[] MIDDLEGAME = {
+        "5;6;7;2;1;0;1;7;14;1;14;3;0;11;1",
+        "17;2;2;0;2;1;6;9;1;15;1;0;13;3;2",
+        "6;1;4;6;9;1;3;7;1;7;3;7;15;2;1",
+    };
+
+    /**
+     * Endgame positions (board strings).
+     */
+    public static final String[] ENDGAME = {
+        "24;1;0;0;0;0;1;32;1;0;0;1;10;2;1",
+        "32;3;0;0;0;1;3;24;0;0;3;6;0;0;2",
+        "31;2;2;0;0;2;1;28;1;3;1;0;1;0;2",
+    };
+
+    /**
+     * All benchmark positions.
+     */
+    public static final String[] CORPUS = concat(OPENING, MIDDLEGAME, ENDGAME);
+
+    // Time spent on warmup and measurement for each benchmark
+    static final long WARMUP_MS = 1000;
+    static final long MEASURE_MS = 2000;
+
+    // Default fixed depth for search benchmarks
+    static final int SEARCH_DEPTH = 8;
+    
+    // Default depth and thread counts for time-to-depth runs
+    static final int TTD_DEPTH = 14;
+    static final int[] TTD_THREADS = {1, 2, 4, 8, 16};
+    
+    // Iterative deepening drivers compared by -compare
+    static final String[] DRIVERS = {"iddfs", "pvs", "mtdf"};
+
+    // Sink for benchmark results
+    private long checksum;
+
+    /**
+     * A benchmarked operation.
+     */
+    public static abstract class Bench
+    {
+        final String name;
+
+        /**
+         * Creates a new benchmark.
+         *
+         * @param name Benchmark name
+         */
+        public Bench(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Runs the operation a number of times.
+         *
+         * @param ops Number of operations
+         * @return Value derived from the results
+         */
+        public abstract long run(int ops);
+    }
+
+    /**
+     * Measures a benchmark and prints ns/op, ops/s and bytes/op.
+     *
+     * @param bench The benchmark
+     */
+    public void measure(Bench bench)
+    {
+        // Warmup, and find a batch size that takes about 10 ms
+        int batch = 1;
+        long end = System.currentTimeMillis() + WARMUP_MS;
+        while (System.currentTimeMillis() < end) {
+            long t = System.nanoTime();
+            checksum += bench.run(batch);
+            if (System.nanoTime() - t < 10000000L && batch < (1 << 30)) {
+                batch *= 2;
+            }
+        }
+
+        long ops = 0;
+        long bytes0 = allocatedBytes();
+        long t0 = System.nanoTime();
+        end = System.currentTimeMillis() + MEASURE_MS;
+        while (System.currentTimeMillis() < end) {
+            checksum += bench.run(batch);
+            ops += batch;
+        }
+        long ns = System.nanoTime() - t0;
+        long bytes = allocatedBytes() - bytes0;
+
+        String alloc = (bytes0 < 0) ? "n/a" : String.format("%.1f", (double)bytes / ops);
+        System.out.println(String.format("%-40s %12.1f ns/op %14.0f ops/s %10s B/op",
+                bench.name, (double)ns / ops, ops * 1e9 / ns, alloc));
+    }
+
+    /**
+     * Returns the number of bytes allocated on the heap by the current thread.
+     *
+     * @return Allocated bytes, or -1 if the JVM does not support it
+     */
+    static long allocatedBytes()
+    {
+        try {
+            com.sun.management.ThreadMXBean bean =
+                    (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        } catch (Throwable ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Runs the engine and search benchmarks.
+     *
+     * @param args [filter] [searchDepth]
+     */
+    public static void main(String[] args)
+    {
+        if (args.length > 0 && args[0].equals("-ttd")) {
+            timeToDepth((args.length > 1) ? Integer.parseInt(args[1]) : TTD_DEPTH);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-compare")) {
+            compareDrivers((args.length > 1) ? Integer.parseInt(args[1]) : TTD_DEPTH);
+            return;
+        }
+        
+        String filter = (args.length > 0) ? args[0] : "";
+        int depth = (args.length > 1) ? Integer.parseInt(args[1]) : SEARCH_DEPTH;
+
+        Benchmark b = new Benchmark();
+        for (Bench bench : engineBenches()) {
+            if (bench.name.contains(filter)) {
+                b.measure(bench);
+            }
+        }
+        for (Bench bench : searchBenches(depth)) {
+            if (bench.name.contains(filter)) {
+                b.measure(bench);
+            }
+        }
+        System.out.println("checksum " + b.checksum);
+    }
+
+    /**
+     * Creates the engine benchmarks, run over all corpus positions.
+     *
+     * @return Engine benchmarks
+     */
+    static Bench[] engineBenches()
+    {
+        final GameState[] states = new GameState[CORPUS.length];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new GameState(CORPUS[i]);
+        }
+        final int n = states.length;
+        final UndoStack undo = new UndoStack(1);
+
+        return new Bench[] {
+            new Bench("GameState.clone") {
+                public long run(int ops) {
+                    long r = 0;
+                    for (int i = 0; i < ops; i++) {
+                        r += states[i % n].clone().getNextPlayer();
+                    }
+                    return r;
+                }
+            },
+            new Bench("GameState.clone+makeMove") {
+                public long run(int ops) {
+                    long r = 0;
+                    for (int i = 0; i < ops; i++) {
+                        GameState s = states[i % n];
+                        GameState c = s.clone();
+                        c.makeMove(GameState.firstMove(s.legalMoves()));
+                        r += c.getScore(1);
+                    }
+                    return r;
+                }
+            },
+            new Bench("GameState.makeMove+unmakeMove") {
+                public long run(int ops) {
+                    long r = 0;
+                    for (int i = 0; i < ops; i++) {
+                        GameState s = states[i % n];
+                        s.makeMove(GameState.firstMove(s.legalMoves()), undo);
+                        r += s.getScore(1);
+                        s.unmakeMove(undo);
+                    }
+                    return r;
+                }
+            },
+            new Bench("GameState.gameEnded") {
+                public long run(int ops) {
+                    long r = 0;
+                    for (int i = 0; i < ops; i++) {
+                        if (states[i % n].gameEnded()) r++;
+                    }
+                    return r;
+                }
+            },
+            new Bench("GameState(String)") {
+                public long run(int ops) {
+                    long r = 0;
+                    for (int i = 0; i < ops; i++) {
+                        r += new GameState(CORPUS[i % n]).getNextPlayer();
+                    }
+                    return r;
+                }
+            },
+            new Bench("GameState.toString") {
+                public long run(int ops) {
+                    long r = 0;
+                    for (int i = 0; i < ops; i++) {
+                        r += states[i % n].toString().length();
+                    }
+                    return r;
+                }
+            },
+        };
+    }
+
+    /**
+     * Creates one fixed-depth negamax search benchmark per corpus position.
+     *
+     * @param depth Search depth
+     * @return Search benchmarks
+     */
+    static Bench[] searchBenches(final int depth)
+    {
+        Bench[] benches = new Bench[CORPUS.length];
+        for (int i = 0; i < CORPUS.length; i++) {
+            final GameState state = new GameState(CORPUS[i]);
+            // Small table cleared before every search, so each search starts cold
+            final TranspositionTable tt = new TranspositionTable(1);
+            final Searcher searcher = new Searcher(state.getNextPlayer(), tt);
+            String phase = (i < OPENING.length) ? "opening"
+                    : (i < OPENING.length + MIDDLEGAME.length) ? "middlegame" : "endgame";
+            benches[i] = new Bench("search d" + depth + " " + phase + " " + (i % 3 + 1)) {
+                public long run(int ops) {
+                    long r = 0;
+                    for (int j = 0; j < ops; j++) {
+                        tt.clear();
+                        r += searcher.search(state, depth, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+                        r += searcher.getBestMove();
+                    }
+                    return r;
+                }
+            };
+        }
+        return benches;
+    }
+
+    /**
+     * Measures the time for iterative deepening to reach a depth on all
+     * corpus positions, for the serial search and for root-parallel search
+     * with each thread count in {@link #TTD_THREADS}. Also checks that the
+     * parallel search picks the same moves as the serial search.
+     *
+     * @param depth Depth to reach
+     */
+    static void timeToDepth(int depth)
+    {
+        // The first serial pass warms up the JIT and is not counted
+        int[] serialMoves = new int[CORPUS.length];
+        long serialNs = 0;
+        for (int i = 0; i < 2 * CORPUS.length; i++) {
+            if (i == CORPUS.length) {
+                serialNs = 0;
+            }
+            GameState state = new GameState(CORPUS[i % CORPUS.length]);
+            Searcher s = new Searcher(state.getNextPlayer(), new TranspositionTable(AIClient.TT_SIZE_MB));
+            long t = System.nanoTime();
+            s.newSearch(Long.MAX_VALUE);
+            for (int d = 1; d <= depth; d++) {
+                s.search(state, d, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+                s.setPvMove(s.getBestMove());
+            }
+            serialNs += System.nanoTime() - t;
+            serialMoves[i % CORPUS.length] = s.getBestMove();
+        }
+        System.out.println(String.format("depth %d, %d positions, %d cores", depth, CORPUS.length,
+                Runtime.getRuntime().availableProcessors()));
+        System.out.println(String.format("%-8s %10.1f ms", "serial", serialNs / 1e6));
+
+        for (int threads : TTD_THREADS) {
+            long ns = 0;
+            int differ = 0;
+            for (int i = 0; i < CORPUS.length; i++) {
+                GameState state = new GameState(CORPUS[i]);
+                RootParallelSearch p = new RootParallelSearch(state.getNextPlayer(), threads,
+                        new TranspositionTable(AIClient.TT_SIZE_MB));
+                long t = System.nanoTime();
+                p.newSearch(Long.MAX_VALUE);
+                for (int d = 1; d <= depth; d++) {
+                    p.search(state, d, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+                    p.setPvMove(p.getBestMove());
+                }
+                ns += System.nanoTime() - t;
+                if (p.getBestMove() != serialMoves[i]) {
+                    differ++;
+                }
+                p.shutdown();
+            }
+            System.out.println(String.format("%-8s %10.1f ms   speedup %5.2f   moves differing from serial: %d",
+                    threads + " thr", ns / 1e6, (double)serialNs / ns, differ));
+        }
+    }
+
+    /**
+     * Compares the iterative deepening drivers in {@link #DRIVERS} on all
+     * corpus positions: nodes and time to reach a depth, and the score found.
+     *
+     * @param depth Depth to reach
+     */
+    static void compareDrivers(int depth)
+    {
+        // The first round warms up the JIT and is not printed
+        for (int round = 0; round < 2; round++) {
+            for (String driver : DRIVERS) {
+                long totalNodes = 0;
+                long totalNs = 0;
+                long nullWindow = 0;
+                long reSearches = 0;
+                long passes = 0;
+                for (int i = 0; i < CORPUS.length; i++) {
+                    GameState state = new GameState(CORPUS[i]);
+                    Searcher s = new Searcher(state.getNextPlayer(), new TranspositionTable(AIClient.TT_SIZE_MB));
+                    long t = System.nanoTime();
+                    s.newSearch(Long.MAX_VALUE);
+                    int score = iterate(driver, s, state, depth);
+                    long ns = System.nanoTime() - t;
+                    totalNodes += s.getNodes();
+                    totalNs += ns;
+                    nullWindow += s.getNullWindowSearches();
+                    reSearches += s.getReSearches();
+                    passes += s.getMtdfPasses();
+                    if (round == 1) {
+                        System.out.println(String.format("%-6s %-32s score %5d move %d %12d nodes %9.1f ms",
+                                driver, CORPUS[i], score, s.getBestMove(), s.getNodes(), ns / 1e6));
+                    }
+                }
+                if (round == 1) {
+                    System.out.println(String.format("%-6s total %d nodes %.1f ms, re-searches %d of %d null-window searches, %d MTD(f) passes",
+                            driver, totalNodes, totalNs / 1e6, reSearches, nullWindow, passes));
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs iterative deepening to a fixed depth with a driver.
+     *
+     * @param driver Driver name, one of {@link #DRIVERS}
+     * @param s Searcher
+     * @param state Game state
+     * @param depth Depth to reach
+     * @return Score at the final depth
+     */
+    static int iterate(String driver, Searcher s, GameState state, int depth)
+    {
+        boolean pvs = driver.equals("pvs");
+        s.setPvs(pvs);
+        int score = 0;
+        for (int d = 1; d <= depth; d++) {
+            if (driver.equals("mtdf")) {
+                score = s.mtdf(state, d, score);
+            } else if (pvs && d > 1) {
+                score = s.aspirationSearch(state, d, score);
+            } else {
+                score = s.search(state, d, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+            }
+            s.setPvMove(s.getBestMove());
+        }
+        return score;
+    }
+
+    /**
+     * Concatenates string arrays.
+     *
+     * @param parts Arrays to concatenate
+     * @return Concatenated array
+     */
+    private static String[] concat(String[]... parts)
+    {
+        int len = 0;
+        for (String[] p : parts) {
+            len += p.length;
+        }
+        String[] all = new String[len];
+        int off = 0;
+        for (String[] p : parts) {
+            System.arraycopy(p, 0, all, off, p.length);
+            off += p.length;
+        }
+        return all;
+    }
+}
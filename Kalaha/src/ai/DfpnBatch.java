@@ -0,0 +1,106 @@
+package ai;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import kalaha.*;
+
+/**
+ * Solves the positions of a file with {@link DfpnSolver}, for post-game
+ * analysis. The file has one board string per line, in the format sent by
+ * the game server. Empty lines and lines starting with # are skipped.
+ * <p>
+ * The positions are split between threads, each with its own solver and
+ * an equal share of the memory budget. One line is printed per position,
+ * in file order: the board, the result for the player to move, a move
+ * reaching it (0 for a loss) and the number of nodes.
+ * <p>
+ * Usage: {@code java ai.DfpnBatch <file> [threads] [memory MB] [seconds per position]}
+ */
+public class DfpnBatch
+{
+    static final int DEFAULT_MEMORY_MB = 256;
+    static final int DEFAULT_SECONDS = 60;
+
+    /**
+     * Reads the board strings of a position file.
+     *
+     * @param file Position file
+     * @return Board strings
+     * @throws IOException If the file could not be read
+     */
+    static List<String> read(File file) throws IOException
+    {
+        List<String> boards = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    boards.add(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return boards;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1) {
+            System.out.println("Usage: java ai.DfpnBatch <file> [threads] [memory MB] [seconds per position]");
+            return;
+        }
+        final List<String> boards = read(new File(args[0]));
+        final int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final int memoryMb = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_MEMORY_MB;
+        final long limitMs = 1000L * ((args.length > 3) ? Integer.parseInt(args[3]) : DEFAULT_SECONDS);
+        final String[] results = new String[boards.size()];
+
+        // Thread t solves positions t, t + threads, ...
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                tasks.add(pool.submit(new Runnable() {
+                    public void run() {
+                        DfpnSolver solver = new DfpnSolver(Math.max(1, memoryMb / threads));
+                        GameState state = new GameState();
+                        for (int i = first; i < results.length; i += threads) {
+                            try {
+                                state.parse(boards.get(i));
+                            } catch (IllegalArgumentException ex) {
+                                results[i] = boards.get(i) + " ERROR " + ex.getMessage();
+                                continue;
+                            }
+                            int result = solver.solve(state, System.currentTimeMillis() + limitMs);
+                            results[i] = boards.get(i) + " " + DfpnSolver.getResultName(result)
+                                    + " " + solver.getBestMove() + " " + solver.getNodes();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Solver failed", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (String r : results) {
+            System.out.println(r);
+        }
+    }
+}
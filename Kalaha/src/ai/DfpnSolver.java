@@ -0,0 +1,356 @@
+package ai;
+
+import java.util.Arrays;
+import kalaha.*;
+
+/**
+ * Depth-first proof-number (df-pn) solver. Finds the game-theoretic result
+ * of a position, win, draw or loss for the player to move, instead of a
+ * heuristic score.
+ * <p>
+ * A proof-number search proves or disproves one goal, here that the player
+ * to move at the root ends the game with at least a given score difference.
+ * Nodes where that player moves (extra moves included) need one proved
+ * child, nodes where the opponent moves need all children proved. The
+ * proof and disproof numbers count the leaves that still have to be
+ * solved, and the search always expands the most-proving node. A win is
+ * proved with a difference of at least 1; if that fails, a draw is proved
+ * with a difference of at least 0.
+ * <p>
+ * Proof and disproof numbers are kept in a transposition table whose size
+ * is set by the memory budget. Entries are replaced when the table is full,
+ * which costs search time but never gives a wrong result. With a
+ * {@link Tablebase}, positions in the tablebase are leaves with an exact
+ * result.
+ */
+public class DfpnSolver
+{
+    // Results, for the player to move
+    public static final int LOSS = -1;
+    public static final int DRAW = 0;
+    public static final int WIN = 1;
+    public static final int UNKNOWN = 2;
+
+    // Proof and disproof numbers of solved nodes. Sums over unsolved
+    // children are capped below it, so only solved nodes reach it.
+    static final int INF = 100000000;
+
+    // Bytes per transposition table entry
+    static final int ENTRY_BYTES = 8 + 4 + 4 + 1;
+
+    // Longest game the undo stack can hold
+    static final int MAX_PLIES = 4096;
+
+    // Nodes between checks of the clock
+    static final int POLL_INTERVAL = 4096;
+
+    // Transposition table, one entry per slot
+    private final long[] keys;
+    private final int[] pns;
+    private final int[] dns;
+    private final byte[] moves;
+    private final int mask;
+
+    private final UndoStack undo = new UndoStack(MAX_PLIES);
+    private Tablebase tablebase;
+    private final int[] tablebasePits = new int[12];
+
+    // Goal of the current proof: the final score difference of rootPlayer is at least threshold
+    private int rootPlayer;
+    private int threshold;
+
+    // Search control
+    private long deadline = Long.MAX_VALUE;
+    private int pollCountdown;
+    private boolean aborted;
+
+    // Result of the last solve()
+    private int bestMove;
+
+    // Statistics, reset by solve()
+    private long nodes;
+
+    /**
+     * Creates a new solver.
+     *
+     * @param memoryMb Memory budget for the transposition table in megabytes
+     */
+    public DfpnSolver(int memoryMb)
+    {
+        long entries = Math.max(1024, (long)memoryMb * 1024 * 1024 / ENTRY_BYTES);
+        int size = Integer.highestOneBit((int)Math.min(entries, 1 << 30));
+        keys = new long[size];
+        pns = new int[size];
+        dns = new int[size];
+        moves = new byte[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Sets the endgame tablebase used for leaves.
+     *
+     * @param tablebase Tablebase, or null for none
+     */
+    public void setTablebase(Tablebase tablebase)
+    {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * Solves a position. The game state is left unchanged.
+     *
+     * @param state Game state
+     * @param deadline Time (System.currentTimeMillis()) at which the solver gives up
+     * @return {@link #WIN}, {@link #DRAW} or {@link #LOSS} for the player to move,
+     * or {@link #UNKNOWN} if the deadline was reached
+     */
+    public int solve(GameState state, long deadline)
+    {
+        this.deadline = deadline;
+        pollCountdown = 0;
+        aborted = false;
+        nodes = 0;
+        bestMove = 0;
+        undo.clear();
+
+        if (state.gameEnded()) {
+            int diff = state.getScore(state.getNextPlayer()) - state.getScore(3 - state.getNextPlayer());
+            return (diff > 0) ? WIN : (diff == 0) ? DRAW : LOSS;
+        }
+        if (prove(state, 1)) {
+            return WIN;
+        }
+        if (aborted) {
+            return UNKNOWN;
+        }
+        if (prove(state, 0)) {
+            return DRAW;
+        }
+        return aborted ? UNKNOWN : LOSS;
+    }
+
+    /**
+     * Tries to prove that the player to move ends the game with at least
+     * a score difference.
+     *
+     * @param state Game state
+     * @param threshold Score difference to reach
+     * @return True if proved, false if disproved or aborted
+     */
+    private boolean prove(GameState state, int threshold)
+    {
+        // Entries of an earlier goal mean something else
+        clear();
+        rootPlayer = state.getNextPlayer();
+        this.threshold = threshold;
+        mid(state, INF, INF);
+        if (aborted) {
+            return false;
+        }
+        int slot = slot(state.getHash());
+        if (keys[slot] == state.getHash() && pns[slot] == 0) {
+            bestMove = moves[slot];
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Multiple iterative deepening: expands the most-proving node below a
+     * position until its proof or disproof number reaches a threshold.
+     *
+     * @param state Game state, changed during the search and restored before returning
+     * @param thpn Proof number threshold
+     * @param thdn Disproof number threshold
+     */
+    private void mid(GameState state, int thpn, int thdn)
+    {
+        long key = state.getHash();
+        boolean or = (state.getNextPlayer() == rootPlayer);
+        while (true) {
+            nodes++;
+            if (--pollCountdown <= 0) {
+                pollCountdown = POLL_INTERVAL;
+                if (System.currentTimeMillis() > deadline) {
+                    aborted = true;
+                }
+            }
+            if (aborted) {
+                return;
+            }
+
+            // Proof and disproof numbers from the children. For the player
+            // to prove: proof number of the best child, sum of disproof numbers.
+            int min = INF;
+            int second = INF;
+            int sum = 0;
+            int best = 0;
+            int bestPn = 1;
+            int bestDn = 1;
+            int moveMask = state.legalMoves();
+            while (moveMask != 0) {
+                int m = GameState.firstMove(moveMask);
+                moveMask &= moveMask - 1;
+
+                state.makeMove(m, undo);
+                long childKey = state.getHash();
+                int pn;
+                int dn;
+                int leaf = leaf(state);
+                if (leaf != 0) {
+                    pn = (leaf > 0) ? 0 : INF;
+                    dn = (leaf > 0) ? INF : 0;
+                } else {
+                    int slot = slot(childKey);
+                    if (keys[slot] == childKey) {
+                        pn = pns[slot];
+                        dn = dns[slot];
+                    } else {
+                        pn = 1;
+                        dn = 1;
+                    }
+                }
+                state.unmakeMove(undo);
+
+                // Seen from the node: the number it minimizes and the one it sums
+                int lo = or ? pn : dn;
+                int hi = or ? dn : pn;
+                if (lo < min) {
+                    second = min;
+                    min = lo;
+                    best = m;
+                    bestPn = pn;
+                    bestDn = dn;
+                } else if (lo < second) {
+                    second = lo;
+                }
+                sum = (hi == INF || sum == INF) ? INF : Math.min(INF - 1, sum + hi);
+            }
+            int pn = or ? min : sum;
+            int dn = or ? sum : min;
+            store(key, pn, dn, best);
+            if (pn >= thpn || dn >= thdn || pn == 0 || dn == 0) {
+                return;
+            }
+
+            // Thresholds for the best child
+            int childThpn;
+            int childThdn;
+            if (or) {
+                childThpn = Math.min(thpn, second + 1);
+                childThdn = Math.min(INF, thdn - dn + bestDn);
+            } else {
+                childThpn = Math.min(INF, thpn - pn + bestPn);
+                childThdn = Math.min(thdn, second + 1);
+            }
+            state.makeMove(best, undo);
+            mid(state, childThpn, childThdn);
+            state.unmakeMove(undo);
+        }
+    }
+
+    /**
+     * Checks if a position is a solved leaf: an ended game, or a position
+     * in the tablebase.
+     *
+     * @param state Game state
+     * @return 1 if the goal is reached, -1 if it is missed, 0 if the position is not a leaf
+     */
+    private int leaf(GameState state)
+    {
+        int diff;
+        if (state.gameEnded()) {
+            diff = state.getScore(rootPlayer) - state.getScore(3 - rootPlayer);
+        } else if (tablebase != null) {
+            int value = tablebase.probe(state, tablebasePits);
+            if (value == Tablebase.UNKNOWN) {
+                return 0;
+            }
+            if (state.getNextPlayer() != rootPlayer) {
+                value = -value;
+            }
+            diff = state.getScore(rootPlayer) - state.getScore(3 - rootPlayer) + value;
+        } else {
+            return 0;
+        }
+        return (diff >= threshold) ? 1 : -1;
+    }
+
+    /**
+     * Returns the table slot of a position.
+     *
+     * @param key Zobrist hash
+     * @return Slot
+     */
+    private int slot(long key)
+    {
+        return (int)(key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * Stores the proof and disproof numbers of a position, replacing any
+     * other position in its slot.
+     *
+     * @param key Zobrist hash
+     * @param pn Proof number
+     * @param dn Disproof number
+     * @param move Move to the most-proving child
+     */
+    private void store(long key, int pn, int dn, int move)
+    {
+        int slot = slot(key);
+        keys[slot] = key;
+        pns[slot] = pn;
+        dns[slot] = dn;
+        moves[slot] = (byte)move;
+    }
+
+    /**
+     * Empties the transposition table.
+     */
+    private void clear()
+    {
+        Arrays.fill(keys, 0);
+    }
+
+    /**
+     * Returns a move that reaches the result of the last {@link #solve},
+     * for a win or a draw.
+     *
+     * @return Move (1-6), or 0 if the position was lost or not solved
+     */
+    public int getBestMove()
+    {
+        return bestMove;
+    }
+
+    /**
+     * Returns the number of nodes expanded by the last {@link #solve}.
+     *
+     * @return Node count
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Returns the name of a result.
+     *
+     * @param result {@link #WIN}, {@link #DRAW}, {@link #LOSS} or {@link #UNKNOWN}
+     * @return Result name
+     */
+    public static String getResultName(int result)
+    {
+        switch (result) {
+            case WIN:
+                return "WIN";
+            case DRAW:
+                return "DRAW";
+            case LOSS:
+                return "LOSS";
+            default:
+                return "UNKNOWN";
+        }
+    }
+}
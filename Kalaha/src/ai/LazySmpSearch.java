@@ -0,0 +1,261 @@
+package ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import kalaha.*;
+
+/**
+ * Lazy SMP parallel search. All threads run their own iterative deepening
+ * on the same position and communicate only through one shared, lock-free
+ * {@link TranspositionTable}. Results stored by one thread are picked up by
+ * the others as hash moves and cutoffs.
+ * <p>
+ * To keep the threads from searching the same tree in the same order, odd
+ * helper threads start one depth deeper than the main thread, every helper
+ * perturbs its move ordering differently, and a thread that finishes a depth
+ * already completed by another thread skips ahead.
+ * <p>
+ * The move played is the one of the deepest completed iteration. The main
+ * search ends at the deadline, or as soon as one thread has searched the
+ * position to the end of the game.
+ */
+public class LazySmpSearch
+{
+    private final int threads;
+    private final TranspositionTable tt;
+    private final Searcher[] searchers;
+    private final ExecutorService helpers;
+
+    // Best result of all threads, guarded by this
+    private int completedDepth;
+    private int bestMove;
+    private int bestScore;
+    private boolean solved;
+
+    /**
+     * Creates a new Lazy SMP search.
+     *
+     * @param player The player the AI plays as (1 or 2)
+     * @param threads Number of threads, including the calling thread
+     * @param tt Transposition table shared by all threads
+     */
+    public LazySmpSearch(int player, int threads, TranspositionTable tt)
+    {
+        this.threads = Math.max(1, threads);
+        this.tt = tt;
+        searchers = new Searcher[this.threads];
+        for (int i = 0; i < this.threads; i++) {
+            searchers[i] = new Searcher(player, tt);
+            searchers[i].getOrdering().setPerturbation(i);
+        }
+        helpers = (this.threads > 1) ? Executors.newFixedThreadPool(this.threads - 1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LazySMP helper");
+                t.setDaemon(true);
+                return t;
+            }
+        }) : null;
+    }
+
+    /**
+     * Enables the quiescence search in all threads.
+     *
+     * @param quiescence True for quiescence search, false to evaluate at the depth limit
+     * @see Searcher#setQuiescence(boolean)
+     */
+    public void setQuiescence(boolean quiescence)
+    {
+        for (Searcher s : searchers) {
+            s.setQuiescence(quiescence);
+        }
+    }
+
+    /**
+     * Sets the endgame tablebase probed by all threads.
+     *
+     * @param tablebase Tablebase, or null for none
+     * @see Searcher#setTablebase(Tablebase)
+     */
+    public void setTablebase(Tablebase tablebase)
+    {
+        for (Searcher s : searchers) {
+            s.setTablebase(tablebase);
+        }
+    }
+
+    /**
+     * Searches a position until the deadline, or until it is searched to the
+     * end of the game. The game state is left unchanged.
+     *
+     * @param state Game state
+     * @param deadline Time (System.currentTimeMillis()) at which the search ends
+     * @return Best move (1-6)
+     */
+    public int search(GameState state, long deadline)
+    {
+        synchronized (this) {
+            completedDepth = 0;
+            bestMove = 0;
+            bestScore = 0;
+            solved = false;
+        }
+        for (Searcher s : searchers) {
+            s.newSearch(deadline);
+        }
+
+        // Helpers search on their own copies of the position
+        List<Future<?>> tasks = new ArrayList<Future<?>>();
+        for (int i = 1; i < threads; i++) {
+            final Searcher s = searchers[i];
+            final GameState copy = state.clone();
+            final int startDepth = 1 + (i & 1);
+            tasks.add(helpers.submit(new Runnable() {
+                public void run() {
+                    iterate(s, copy, startDepth);
+                }
+            }));
+        }
+
+        iterate(searchers[0], state, 1);
+
+        // The main thread is done, stop the helpers and wait for them
+        for (int i = 1; i < threads; i++) {
+            searchers[i].stop();
+        }
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Helper search failed", ex.getCause());
+        }
+
+        synchronized (this) {
+            if (bestMove == 0) {
+                bestMove = GameState.firstMove(state.legalMoves());
+            }
+            return bestMove;
+        }
+    }
+
+    /**
+     * Iterative deepening for one thread.
+     *
+     * @param s The thread's searcher
+     * @param state Game state
+     * @param depth First depth to search
+     */
+    private void iterate(Searcher s, GameState state, int depth)
+    {
+        while (true) {
+            int score = s.search(state, depth, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+            if (s.isAborted()) {
+                return;
+            }
+            s.setPvMove(s.getBestMove());
+            if (report(depth, s.getBestMove(), score, s.isSolved())) {
+                return;
+            }
+
+            // Skip depths other threads have already completed
+            depth = Math.max(depth, getCompletedDepth()) + 1;
+        }
+    }
+
+    /**
+     * Records a completed iteration.
+     *
+     * @param depth Depth of the iteration
+     * @param move Best move
+     * @param score Score
+     * @param solved True if the iteration searched to the end of the game
+     * @return True if the search is finished
+     */
+    private synchronized boolean report(int depth, int move, int score, boolean solved)
+    {
+        if (depth > completedDepth || (solved && !this.solved)) {
+            completedDepth = Math.max(completedDepth, depth);
+            bestMove = move;
+            bestScore = score;
+            this.solved |= solved;
+        }
+        if (this.solved) {
+            // Nothing left to search, stop the other threads too
+            for (Searcher s : searchers) {
+                s.stop();
+            }
+        }
+        return this.solved;
+    }
+
+    /**
+     * Returns the deepest iteration completed by any thread in the last search.
+     *
+     * @return Completed depth
+     */
+    public synchronized int getCompletedDepth()
+    {
+        return completedDepth;
+    }
+
+    /**
+     * Returns the score of the move played by the last search.
+     *
+     * @return Score for the player to move
+     */
+    public synchronized int getBestScore()
+    {
+        return bestScore;
+    }
+
+    /**
+     * Returns the number of nodes visited by all threads in the last search.
+     *
+     * @return Node count
+     */
+    public long getNodes()
+    {
+        long nodes = 0;
+        for (Searcher s : searchers) {
+            nodes += s.getNodes();
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the number of threads.
+     *
+     * @return Thread count
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Returns the shared transposition table.
+     *
+     * @return Transposition table
+     */
+    public TranspositionTable getTranspositionTable()
+    {
+        return tt;
+    }
+
+    /**
+     * Stops the helper threads.
+     */
+    public void shutdown()
+    {
+        if (helpers != null) {
+            helpers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package ai;
+
+import kalaha.GameState;
+
+/**
+ * Move ordering for the alpha-beta search. Good moves searched first give
+ * more cutoffs, so less of the tree has to be visited.
+ * <p>
+ * Moves are tried in this order:
+ * <ol>
+ * <li>the hash move (best move from the transposition table or the previous IDDFS iteration)</li>
+ * <li>moves giving an extra move, then captures (largest first)</li>
+ * <li>killer moves, which caused a cutoff at the same ply elsewhere in the tree</li>
+ * <li>remaining moves by history score, which is kept for the whole game</li>
+ * </ol>
+ * At the root, remaining moves are left in move number order instead.
+ * <p>
+ * Helper threads of a parallel search can perturb the order of the
+ * remaining moves, so that they search the tree in a different order.
+ * Move lists are preallocated per ply, so ordering never allocates.
+ */
+public class MoveOrdering
+{
+    // Sort keys for the move categories, history scores are kept below KILLER
+    static final int HASH = 1 << 30;
+    static final int EXTRA_MOVE = 1 << 29;
+    static final int CAPTURE = 1 << 28;
+    static final int KILLER = 1 << 27;
+
+    // Moves and sort keys per ply
+    private int[][] moves = new int[0][];
+    private int[] keys = new int[6];
+
+    // Two killer moves per ply
+    private int[][] killers = new int[0][];
+
+    // History score per player (1-2) and move (1-6)
+    private final int[][] history = new int[3][7];
+
+    // Seed for perturbing the order of quiet moves, 0 for none
+    private int perturbation;
+
+    // Statistics
+    private long cutoffs;
+    private long firstMoveCutoffs;
+
+    /**
+     * Creates a new move ordering.
+     *
+     * @param plies Initial maximum search depth in plies
+     */
+    public MoveOrdering(int plies)
+    {
+        ensureCapacity(plies);
+    }
+
+    /**
+     * Makes sure move lists and killer slots exist for a number of plies.
+     *
+     * @param plies Maximum search depth in plies
+     */
+    public void ensureCapacity(int plies)
+    {
+        if (moves.length >= plies) {
+            return;
+        }
+        int[][] m = new int[plies][];
+        int[][] k = new int[plies][];
+        for (int i = 0; i < plies; i++) {
+            m[i] = (i < moves.length) ? moves[i] : new int[6];
+            k[i] = (i < killers.length) ? killers[i] : new int[2];
+        }
+        moves = m;
+        killers = k;
+    }
+
+    /**
+     * Sets a seed that perturbs the order of quiet moves (moves that are not
+     * hash, tactical or killer moves) below the root.
+     *
+     * @param seed Perturbation seed, 0 for the normal order
+     */
+    public void setPerturbation(int seed)
+    {
+        perturbation = seed;
+    }
+
+    /**
+     * Starts ordering for a new move in the game. Killers are cleared and
+     * history scores are halved, so older information counts less.
+     */
+    public void newSearch()
+    {
+        for (int[] k : killers) {
+            k[0] = 0;
+            k[1] = 0;
+        }
+        for (int p = 1; p <= 2; p++) {
+            for (int m = 1; m <= 6; m++) {
+                history[p][m] >>= 1;
+            }
+        }
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+    }
+
+    /**
+     * Orders the legal moves of a position. The ordered moves are read
+     * with {@link #getMoves(int)} and stay valid until the ply is ordered again.
+     *
+     * @param state Game state
+     * @param ply Ply from the search root
+     * @param hashMove Move to try first (1-6), or 0 if none
+     * @return Number of legal moves
+     */
+    public int order(GameState state, int ply, int hashMove)
+    {
+        int[] list = moves[ply];
+        int[] k = killers[ply];
+        int player = state.getNextPlayer();
+
+        int n = 0;
+        int mask = state.legalMoves();
+        while (mask != 0) {
+            int m = GameState.firstMove(mask);
+            mask &= mask - 1;
+
+            int key;
+            if (m == hashMove) {
+                key = HASH;
+            } else if (state.givesExtraMove(m)) {
+                // Moves closer to the house first, they keep more seeds on our side
+                key = EXTRA_MOVE + m;
+            } else {
+                int captured = state.getCaptureSize(m);
+                if (captured > 0) {
+                    key = CAPTURE + captured;
+                } else if (ply == 0) {
+                    // Root moves keep a fixed order, so the choice between equally
+                    // good moves does not depend on the history of the search
+                    key = 0;
+                } else if (m == k[0]) {
+                    key = KILLER + 1;
+                } else if (m == k[1]) {
+                    key = KILLER;
+                } else {
+                    key = Math.min(history[player][m], KILLER - 1);
+                    if (perturbation != 0) {
+                        // Small noise only reorders moves with similar history
+                        int noise = (perturbation * 0x9E3779B1 + m * 0x85EBCA6B + ply * 0xC2B2AE35) >>> 26;
+                        key = Math.min(key + noise, KILLER - 1);
+                    }
+                }
+            }
+
+            // Insertion sort, highest key first
+            int j = n;
+            while (j > 0 && keys[j - 1] < key) {
+                keys[j] = keys[j - 1];
+                list[j] = list[j - 1];
+                j--;
+            }
+            keys[j] = key;
+            list[j] = m;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the moves ordered for a ply.
+     *
+     * @param ply Ply from the search root
+     * @return Ordered moves, the first {@link #order} entries are valid
+     */
+    public int[] getMoves(int ply)
+    {
+        return moves[ply];
+    }
+
+    /**
+     * Records a move that caused a cutoff.
+     *
+     * @param state Game state the move was made from
+     * @param ply Ply from the search root
+     * @param move The move (1-6)
+     * @param depth Remaining depth at the node
+     * @param index Position of the move in the ordered list
+     */
+    public void cutoff(GameState state, int ply, int move, int depth, int index)
+    {
+        cutoffs++;
+        if (index == 0) {
+            firstMoveCutoffs++;
+        }
+
+        // Tactical moves are already ordered early, keep killers and history for quiet moves
+        if (state.givesExtraMove(move) || state.getCaptureSize(move) > 0) {
+            return;
+        }
+        int[] k = killers[ply];
+        if (k[0] != move) {
+            k[1] = k[0];
+            k[0] = move;
+        }
+        int[] h = history[state.getNextPlayer()];
+        h[move] = Math.min(h[move] + depth * depth, KILLER - 1);
+    }
+
+    /**
+     * Returns the number of cutoffs since the last {@link #newSearch()}.
+     *
+     * @return Cutoff count
+     */
+    public long getCutoffs()
+    {
+        return cutoffs;
+    }
+
+    /**
+     * Returns the percentage of cutoffs caused by the first move tried,
+     * a measure of how good the ordering is.
+     *
+     * @return First-move cutoff percentage (0-100)
+     */
+    public double getFirstMoveCutoffRate()
+    {
+        return (cutoffs == 0) ? 0 : 100.0 * firstMoveCutoffs / cutoffs;
+    }
+}
@@ -0,0 +1,93 @@
+package ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import kalaha.*;
+
+/**
+ * Opening book, read from a file generated by {@link OpeningBookBuilder}.
+ * <p>
+ * The file is a sorted array of 64-bit entries. The upper 61 bits of an
+ * entry are the upper bits of the Zobrist hash of a position, the lower
+ * 3 bits the book move (1-6). The file is memory-mapped and searched with
+ * a binary search, so a lookup reads only a few entries.
+ */
+public class OpeningBook
+{
+    // Bits of an entry holding the move
+    static final long MOVE_MASK = 7;
+
+    private final LongBuffer entries;
+
+    /**
+     * Opens an opening book file.
+     *
+     * @param file Book file
+     * @throws IOException If the file could not be mapped or is not a book
+     */
+    public OpeningBook(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() % 8 != 0) {
+                throw new IOException("Opening book " + file + " has " + raf.length() + " bytes, not whole entries");
+            }
+            entries = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()).asLongBuffer();
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Creates a book entry.
+     *
+     * @param hash Zobrist hash of the position
+     * @param move Book move (1-6)
+     * @return Entry
+     */
+    static long entry(long hash, int move)
+    {
+        return (hash & ~MOVE_MASK) | move;
+    }
+
+    /**
+     * Looks up the book move for a position.
+     *
+     * @param state Game state
+     * @return Book move (1-6), or 0 if the position is not in the book
+     */
+    public int lookup(GameState state)
+    {
+        long key = state.getHash() & ~MOVE_MASK;
+        int lo = 0;
+        int hi = entries.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long e = entries.get(mid);
+            long k = e & ~MOVE_MASK;
+            if (k == key) {
+                return (int)(e & MOVE_MASK);
+            }
+            if (k < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of positions in the book.
+     *
+     * @return Entry count
+     */
+    public int size()
+    {
+        return entries.limit();
+    }
+}
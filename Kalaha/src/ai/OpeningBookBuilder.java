@@ -0,0 +1,177 @@
+package ai;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import kalaha.*;
+
+/**
+ * Builds an {@link OpeningBook} file. Every position reachable from the
+ * start position within the first plies (moves by either player, extra
+ * moves included) is searched to a fixed depth, and the best move is
+ * written to the book.
+ * <p>
+ * The positions are split between threads, each with its own
+ * {@link Searcher} and transposition table, so the deep searches run in
+ * parallel without sharing anything.
+ * <p>
+ * Usage: {@code java ai.OpeningBookBuilder <file> [plies] [depth] [threads]}
+ */
+public class OpeningBookBuilder
+{
+    static final int DEFAULT_PLIES = 4;
+    static final int DEFAULT_DEPTH = 16;
+
+    // Transposition table size per thread
+    static final int TT_SIZE_MB = 32;
+
+    private final int plies;
+    private final int depth;
+    private final int threads;
+
+    /**
+     * Creates a new book builder.
+     *
+     * @param plies Number of plies from the start position covered by the book
+     * @param depth Search depth per position
+     * @param threads Number of threads to use
+     */
+    public OpeningBookBuilder(int plies, int depth, int threads)
+    {
+        this.plies = plies;
+        this.depth = depth;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Collects the positions reachable within the first plies, once per
+     * position. Ended games are left out.
+     *
+     * @return Positions
+     */
+    List<GameState> positions()
+    {
+        List<GameState> result = new ArrayList<GameState>();
+        Set<Long> seen = new HashSet<Long>();
+        List<GameState> level = new ArrayList<GameState>();
+        level.add(new GameState());
+        seen.add(level.get(0).getHash());
+        for (int ply = 0; ply < plies && !level.isEmpty(); ply++) {
+            result.addAll(level);
+            List<GameState> next = new ArrayList<GameState>();
+            for (GameState s : level) {
+                int mask = s.legalMoves();
+                while (mask != 0) {
+                    int m = GameState.firstMove(mask);
+                    mask &= mask - 1;
+                    GameState child = s.clone();
+                    child.makeMove(m);
+                    if (!child.gameEnded() && seen.add(child.getHash())) {
+                        next.add(child);
+                    }
+                }
+            }
+            level = next;
+        }
+        return result;
+    }
+
+    /**
+     * Searches the positions and writes the book file.
+     *
+     * @param file Book file
+     * @throws IOException If the file could not be written
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    public void build(File file) throws IOException, InterruptedException
+    {
+        final List<GameState> positions = positions();
+        final long[] entries = new long[positions.size()];
+        System.out.println(positions.size() + " positions, depth " + depth + ", " + threads + " threads");
+
+        // Thread t searches positions t, t + threads, ...
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                tasks.add(pool.submit(new Runnable() {
+                    public void run() {
+                        TranspositionTable tt = new TranspositionTable(TT_SIZE_MB);
+                        for (int i = first; i < entries.length; i += threads) {
+                            GameState s = positions.get(i);
+                            entries[i] = OpeningBook.entry(s.getHash(), search(s, tt));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Book search failed", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Arrays.sort(entries);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (long e : entries) {
+                out.writeLong(e);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Finds the best move of a position by iterative deepening to the book depth.
+     *
+     * @param state Game state, left unchanged
+     * @param tt Transposition table of the thread
+     * @return Best move (1-6)
+     */
+    private int search(GameState state, TranspositionTable tt)
+    {
+        tt.clear();
+        Searcher s = new Searcher(state.getNextPlayer(), tt);
+        s.setQuiescence(true);
+        s.newSearch(Long.MAX_VALUE);
+        int move = GameState.firstMove(state.legalMoves());
+        for (int d = 1; d <= depth; d++) {
+            s.search(state, d, -Integer.MAX_VALUE, Integer.MAX_VALUE);
+            move = s.getBestMove();
+            s.setPvMove(move);
+            if (s.isSolved()) {
+                break;
+            }
+        }
+        return move;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1) {
+            System.out.println("Usage: java ai.OpeningBookBuilder <file> [plies] [depth] [threads]");
+            return;
+        }
+        int plies = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_PLIES;
+        int depth = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_DEPTH;
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long start = System.currentTimeMillis();
+        new OpeningBookBuilder(plies, depth, threads).build(new File(args[0]));
+        System.out.println("Done in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,335 @@
+package ai;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import kalaha.*;
+
+/**
+ * Parallel search that splits the root moves between the threads of a
+ * {@link ForkJoinPool}.
+ * <p>
+ * The first root move (the best move of the previous iteration) is searched
+ * alone to get a good alpha bound, then the remaining moves are searched in
+ * parallel. Each root move starts with the best score found so far as its
+ * alpha bound. The bound is read once, when the move's search starts: a
+ * better score found by another thread meanwhile does not narrow a search
+ * already running, which then visits more nodes than needed but still
+ * returns a correct score.
+ * <p>
+ * Workers use their own {@link Searcher}, from a fixed set of one searcher per
+ * thread of the pool. They share one lock-free {@link TranspositionTable}, as
+ * in {@link LazySmpSearch}, so every worker sees the results of the earlier
+ * iterations and moves, and of the other workers.
+ * <p>
+ * The chosen move does not depend on thread timing: it is the first move in
+ * root order with the highest score, which is also the move the serial search
+ * picks at the same depth. Moves ordered before the current best move are
+ * searched with alpha lowered by one, so a tie with the best move is still
+ * found exactly.
+ */
+public class RootParallelSearch
+{
+    private final int threads;
+    private final ForkJoinPool pool;
+
+    // Searchers not in use by a worker, one per thread
+    private final BlockingQueue<Searcher> idle;
+    private final Searcher[] searchers;
+
+    // Orders the root moves
+    private final MoveOrdering rootOrdering = new MoveOrdering(1);
+
+    private int pvMove;
+
+    // Shared result of the current search, guarded by this
+    private int bestScore;
+    private int bestIndex;
+    private int bestMove;
+    private boolean aborted;
+    private boolean solved;
+
+    /**
+     * Creates a new root-parallel search.
+     *
+     * @param player The player the AI plays as (1 or 2)
+     * @param threads Number of threads
+     * @param tt Transposition table shared by all threads
+     */
+    public RootParallelSearch(int player, int threads, TranspositionTable tt)
+    {
+        this.threads = threads;
+        pool = new ForkJoinPool(threads);
+        searchers = new Searcher[pool.getParallelism()];
+        idle = new ArrayBlockingQueue<Searcher>(searchers.length);
+        for (int i = 0; i < searchers.length; i++) {
+            searchers[i] = new Searcher(player, tt);
+            idle.add(searchers[i]);
+        }
+    }
+
+    /**
+     * Starts a new search (a new move in the game). The shared transposition
+     * table is aged by its owner.
+     *
+     * @param deadline Time (System.currentTimeMillis()) at which the search is aborted
+     */
+    public void newSearch(long deadline)
+    {
+        pvMove = 0;
+        for (Searcher s : searchers) {
+            s.newSearch(deadline);
+        }
+    }
+
+    /**
+     * Sets the root move searched first, normally the best move of the
+     * previous IDDFS iteration.
+     *
+     * @param move Move (1-6), or 0 for none
+     */
+    public void setPvMove(int move)
+    {
+        pvMove = move;
+    }
+
+    /**
+     * Enables the quiescence search in all workers.
+     *
+     * @param quiescence True for quiescence search, false to evaluate at the depth limit
+     * @see Searcher#setQuiescence(boolean)
+     */
+    public void setQuiescence(boolean quiescence)
+    {
+        for (Searcher s : searchers) {
+            s.setQuiescence(quiescence);
+        }
+    }
+
+    /**
+     * Sets the endgame tablebase probed by all workers.
+     *
+     * @param tablebase Tablebase, or null for none
+     * @see Searcher#setTablebase(Tablebase)
+     */
+    public void setTablebase(Tablebase tablebase)
+    {
+        for (Searcher s : searchers) {
+            s.setTablebase(tablebase);
+        }
+    }
+
+    /**
+     * Searches a position to a fixed depth. The game state is left unchanged.
+     *
+     * @param state Game state
+     * @param depth Search depth in plies
+     * @param alpha Lower bound of the search window
+     * @param beta Upper bound of the search window
+     * @return Score for the player to move, not valid if {@link #isAborted()}
+     */
+    public int search(GameState state, int depth, int alpha, int beta)
+    {
+        int moveCount = rootOrdering.order(state, 0, pvMove);
+        int[] moves = rootOrdering.getMoves(0);
+
+        synchronized (this) {
+            bestScore = alpha;
+            bestIndex = Integer.MAX_VALUE;
+            bestMove = 0;
+            aborted = false;
+            solved = true;
+        }
+
+        RootMoveTask[] tasks = new RootMoveTask[moveCount];
+        for (int n = 0; n < moveCount; n++) {
+            tasks[n] = new RootMoveTask(state, moves[n], n, depth, beta);
+        }
+        pool.invoke(new RootTask(tasks));
+
+        synchronized (this) {
+            return bestScore;
+        }
+    }
+
+    /**
+     * Searches the first root move, then the others in parallel.
+     */
+    private static class RootTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final RootMoveTask[] tasks;
+
+        RootTask(RootMoveTask[] tasks)
+        {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            if (tasks.length == 0) {
+                return;
+            }
+            tasks[0].invoke();
+            RootMoveTask[] rest = new RootMoveTask[tasks.length - 1];
+            System.arraycopy(tasks, 1, rest, 0, rest.length);
+            invokeAll(rest);
+        }
+    }
+
+    /**
+     * Searches one root move on a copy of the root position.
+     */
+    private class RootMoveTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final GameState state;
+        private final int move;
+        private final int index;
+        private final int depth;
+        private final int beta;
+
+        RootMoveTask(GameState state, int move, int index, int depth, int beta)
+        {
+            this.state = state.clone();
+            this.move = move;
+            this.index = index;
+            this.depth = depth;
+            this.beta = beta;
+        }
+
+        @Override
+        protected void compute() {
+            if (isAborted()) {
+                return;
+            }
+            // Waits only when the pool has added a thread for a blocked join,
+            // the searchers in use are released by tasks that do not wait
+            Searcher s;
+            try {
+                s = idle.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                abort();
+                return;
+            }
+            try {
+                int alpha = getAlpha(index);
+                int score = s.searchMove(state, move, depth, alpha, beta);
+                report(index, move, alpha, score, s);
+            } finally {
+                idle.add(s);
+            }
+        }
+    }
+
+    /**
+     * Returns the alpha bound for a root move, the best score found so far.
+     *
+     * @param index Position of the move in root order
+     * @return Alpha bound
+     */
+    private synchronized int getAlpha(int index)
+    {
+        // Moves before the best move win ties, so they must prove a score equal to it
+        return (index < bestIndex && bestIndex != Integer.MAX_VALUE) ? bestScore - 1 : bestScore;
+    }
+
+    /**
+     * Marks the current search as aborted.
+     */
+    private synchronized void abort()
+    {
+        aborted = true;
+    }
+
+    /**
+     * Records the result of a root move.
+     *
+     * @param index Position of the move in root order
+     * @param move The move
+     * @param alpha Alpha bound the move was searched with
+     * @param score Score of the move
+     * @param s Searcher that searched the move
+     */
+    private synchronized void report(int index, int move, int alpha, int score, Searcher s)
+    {
+        if (s.isAborted()) {
+            aborted = true;
+            return;
+        }
+        solved &= s.isSolved();
+
+        // Scores at or below alpha are upper bounds, the move is not better
+        if (score > alpha && (score > bestScore || (score == bestScore && index < bestIndex))) {
+            bestScore = score;
+            bestIndex = index;
+            bestMove = move;
+        }
+    }
+
+    /**
+     * Returns the best root move of the last search.
+     *
+     * @return Best move (1-6), or 0 if no move scored above alpha
+     */
+    public synchronized int getBestMove()
+    {
+        return bestMove;
+    }
+
+    /**
+     * Checks if the last search ran out of time.
+     *
+     * @return True if the deadline was reached
+     */
+    public synchronized boolean isAborted()
+    {
+        return aborted;
+    }
+
+    /**
+     * Checks if the last search reached the end of the game on every line.
+     *
+     * @return True if no line was cut off by the depth limit
+     */
+    public synchronized boolean isSolved()
+    {
+        return !aborted && solved;
+    }
+
+    /**
+     * Returns the number of nodes visited by all threads since the last {@link #newSearch}.
+     *
+     * @return Node count
+     */
+    public long getNodes()
+    {
+        long nodes = 0;
+        for (Searcher s : searchers) {
+            nodes += s.getNodes();
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the number of threads.
+     *
+     * @return Thread count
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+}
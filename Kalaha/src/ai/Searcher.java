@@ -0,0 +1,848 @@
+package ai;
+
+import kalaha.*;
+
+/**
+ * Negamax alpha-beta search with a transposition table and move ordering.
+ * <p>
+ * Scores are seen from the player to move at each node, so extra moves
+ * (where the same player moves again) keep the sign and the window, and
+ * a change of side negates them. The evaluation is the score of the AI
+ * player, with a bias against lost games, negated when the opponent is
+ * to move.
+ * <p>
+ * With principal variation search (PVS) enabled, only the first move of a
+ * node is searched with the full window. The other moves are searched with
+ * a null window that only tells if they are better, and are searched again
+ * with the full window when they are.
+ * <p>
+ * With quiescence enabled, positions at the depth limit where the player to
+ * move has a capture or an extra move are not evaluated directly. Only those
+ * moves are searched further, and the player may also stand pat on the
+ * evaluation, until the position is quiet or a node budget is used up.
+ * <p>
+ * With an endgame {@link Tablebase}, positions below the root with few
+ * enough seeds left get their exact value from the tablebase.
+ * <p>
+ * The search walks the tree in place and returns primitive scores. The best
+ * move, principal variation, abort flag and statistics are kept in
+ * preallocated fields, so a search does no heap allocation once the
+ * searcher has grown to the search depth. A searcher is used by one thread;
+ * only the transposition table may be shared.
+ */
+public class Searcher
+{
+    // Returned when the search is aborted, the value is not used
+    static final int ABORTED = 0;
+
+    // Initial half-width of aspiration windows, in seeds
+    static final int ASPIRATION_WINDOW = 3;
+
+    // Nodes between checks of the clock and the stop flag
+    static final int POLL_INTERVAL = 4096;
+
+    // Quiescence limits per position at the depth limit
+    static final int QUIESCENCE_NODE_BUDGET = 64;
+    static final int QUIESCENCE_MAX_PLIES = 16;
+
+    private final int player;
+    private final TranspositionTable tt;
+    private final MoveOrdering ordering;
+    private UndoStack undo;
+
+    // Triangular principal variation table, row ply starts at ply * plies
+    private int plies;
+    private int[] pv = new int[0];
+    private int[] pvLength = new int[0];
+
+    // Search control
+    private long deadline = Long.MAX_VALUE;
+    private volatile boolean stopped;
+    private int pollCountdown;
+    private int pvMove;
+    private boolean pvs;
+    private boolean quiescence;
+    private int quiescenceBudget;
+    private Tablebase tablebase;
+    private final int[] tablebasePits = new int[12];
+
+    // Result of the last search
+    private int bestMove;
+    private boolean aborted;
+    private long depthLimitHits;
+
+    // Best root move among the moves completed before an abort
+    private int partialMove;
+    private int partialScore;
+
+    // Statistics, reset by newSearch()
+    private long nodes;
+    private long ttCutoffs;
+    private int selDepth;
+    private long nullWindowSearches;
+    private long reSearches;
+    private long aspirationSearches;
+    private long aspirationFails;
+    private long mtdfPasses;
+    private long quiescenceNodes;
+    private long tablebaseHits;
+
+    /**
+     * Creates a new searcher.
+     *
+     * @param player The player the AI plays as (1 or 2)
+     * @param tt Transposition table
+     */
+    public Searcher(int player, TranspositionTable tt)
+    {
+        this.player = player;
+        this.tt = tt;
+        ordering = new MoveOrdering(64);
+        ensureCapacity(64);
+    }
+
+    /**
+     * Makes sure the searcher can search a number of plies without allocating.
+     *
+     * @param depth Maximum search depth in plies
+     */
+    public void ensureCapacity(int depth)
+    {
+        if (depth <= plies) {
+            return;
+        }
+        plies = Math.max(depth + QUIESCENCE_MAX_PLIES, plies * 2);
+        undo = new UndoStack(plies);
+        ordering.ensureCapacity(plies);
+        pv = new int[plies * plies];
+        pvLength = new int[plies + 1];
+    }
+
+    /**
+     * Starts a new search (a new move in the game). Resets the statistics,
+     * killer moves and the root move hint.
+     *
+     * @param deadline Time (System.currentTimeMillis()) at which the search is aborted
+     */
+    public void newSearch(long deadline)
+    {
+        this.deadline = deadline;
+        stopped = false;
+        pollCountdown = 0;
+        ordering.newSearch();
+        pvMove = 0;
+        nodes = 0;
+        ttCutoffs = 0;
+        selDepth = 0;
+        nullWindowSearches = 0;
+        reSearches = 0;
+        aspirationSearches = 0;
+        aspirationFails = 0;
+        mtdfPasses = 0;
+        quiescenceNodes = 0;
+        tablebaseHits = 0;
+    }
+
+    /**
+     * Enables principal variation search.
+     *
+     * @param pvs True for PVS, false for plain alpha-beta
+     */
+    public void setPvs(boolean pvs)
+    {
+        this.pvs = pvs;
+    }
+
+    /**
+     * Enables the quiescence search of captures and extra moves at the depth limit.
+     *
+     * @param quiescence True for quiescence search, false to evaluate at the depth limit
+     */
+    public void setQuiescence(boolean quiescence)
+    {
+        this.quiescence = quiescence;
+    }
+
+    /**
+     * Sets the endgame tablebase probed below the root.
+     *
+     * @param tablebase Tablebase, or null for none
+     */
+    public void setTablebase(Tablebase tablebase)
+    {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * Stops the current search from another thread. The search returns as
+     * if the deadline was reached, until the next {@link #newSearch}.
+     */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    /**
+     * Sets the move searched first at the root, normally the best move
+     * of the previous IDDFS iteration.
+     *
+     * @param move Move (1-6), or 0 for none
+     */
+    public void setPvMove(int move)
+    {
+        pvMove = move;
+    }
+
+    /**
+     * Searches a position to a fixed depth. The game state is left unchanged.
+     *
+     * @param state Game state
+     * @param depth Search depth in plies
+     * @param alpha Lower bound of the search window
+     * @param beta Upper bound of the search window
+     * @return Score for the player to move, not valid if {@link #isAborted()}
+     */
+    public int search(GameState state, int depth, int alpha, int beta)
+    {
+        ensureCapacity(depth + 1);
+        undo.clear();
+        aborted = false;
+        depthLimitHits = 0;
+        bestMove = 0;
+        partialMove = 0;
+        return negamax(state, depth, alpha, beta);
+    }
+
+    /**
+     * Searches a position to a fixed depth with an aspiration window around
+     * an expected score, normally the score of the previous IDDFS iteration.
+     * When the score falls outside the window, the window is widened on that
+     * side and the position is searched again.
+     *
+     * @param state Game state
+     * @param depth Search depth in plies
+     * @param guess Expected score
+     * @return Score for the player to move, not valid if {@link #isAborted()}
+     */
+    public int aspirationSearch(GameState state, int depth, int guess)
+    {
+        int delta = ASPIRATION_WINDOW;
+        int alpha = Math.max(guess - delta, -Integer.MAX_VALUE);
+        int beta = Math.min(guess + delta, Integer.MAX_VALUE);
+        aspirationSearches++;
+        while (true) {
+            int score = search(state, depth, alpha, beta);
+            if (aborted) {
+                return ABORTED;
+            }
+            if (score <= alpha && alpha > -Integer.MAX_VALUE) {
+                aspirationFails++;
+                delta *= 2;
+                alpha = (delta > 1000) ? -Integer.MAX_VALUE : score - delta;
+            } else if (score >= beta && beta < Integer.MAX_VALUE) {
+                aspirationFails++;
+                delta *= 2;
+                beta = (delta > 1000) ? Integer.MAX_VALUE : score + delta;
+            } else {
+                return score;
+            }
+        }
+    }
+
+    /**
+     * Searches a position to a fixed depth with MTD(f): a series of
+     * null-window searches that narrow the bounds on the score until they
+     * meet. The transposition table keeps the passes from searching the
+     * same nodes again.
+     *
+     * @param state Game state
+     * @param depth Search depth in plies
+     * @param guess First guess of the score, normally the score of the previous IDDFS iteration
+     * @return Score for the player to move, not valid if {@link #isAborted()}
+     */
+    public int mtdf(GameState state, int depth, int guess)
+    {
+        int score = guess;
+        int lower = -Integer.MAX_VALUE;
+        int upper = Integer.MAX_VALUE;
+        int move = 0;
+        long hits = 0;
+        while (lower < upper) {
+            int beta = (score == lower) ? score + 1 : score;
+            score = search(state, depth, beta - 1, beta);
+            mtdfPasses++;
+            if (aborted) {
+                return ABORTED;
+            }
+            hits += depthLimitHits;
+            if (score < beta) {
+                upper = score;
+            } else {
+                // Only a pass that fails high proves a move reaches the score
+                lower = score;
+                move = bestMove;
+            }
+        }
+        bestMove = move;
+        depthLimitHits = hits;
+        return score;
+    }
+
+    /**
+     * Searches a single root move to a fixed depth, as used when the root
+     * moves are split between threads. The game state is left unchanged.
+     *
+     * @param state Game state before the move
+     * @param move Root move (1-6)
+     * @param depth Search depth in plies, including the root move
+     * @param alpha Lower bound of the search window
+     * @param beta Upper bound of the search window
+     * @return Score of the move for the player to move at the root, not valid if {@link #isAborted()}
+     */
+    public int searchMove(GameState state, int move, int depth, int alpha, int beta)
+    {
+        ensureCapacity(depth + 1);
+        undo.clear();
+        aborted = false;
+        depthLimitHits = 0;
+        bestMove = move;
+        nodes++;
+
+        int toMove = state.getNextPlayer();
+        state.makeMove(move, undo);
+        int score = child(state, toMove, depth - 1, alpha, beta);
+        state.unmakeMove(undo);
+        updatePv(0, move);
+        return aborted ? ABORTED : score;
+    }
+
+    /**
+     * Recursive negamax with alpha-beta pruning.
+     *
+     * @param state Game state, changed during the search and restored before returning
+     * @param depth Remaining depth
+     * @param alpha Lower bound of the search window
+     * @param beta Upper bound of the search window
+     * @return Score for the player to move
+     */
+    private int negamax(GameState state, int depth, int alpha, int beta)
+    {
+        int ply = undo.size();
+        nodes++;
+        pvLength[ply] = 0;
+        if (ply > selDepth) {
+            selDepth = ply;
+        }
+
+        // Time-break condition, the clock is only read every POLL_INTERVAL nodes
+        if (--pollCountdown <= 0) {
+            pollCountdown = POLL_INTERVAL;
+            if (stopped || System.currentTimeMillis() > deadline) {
+                aborted = true;
+            }
+        }
+        if (aborted) {
+            return ABORTED;
+        }
+
+        // End-game condition
+        if (state.gameEnded()) {
+            return evaluateEnd(state);
+        }
+
+        // Exact value from the tablebase, except at the root where a move must be chosen
+        if (tablebase != null && ply > 0) {
+            int value = probeTablebase(state);
+            if (value != Tablebase.UNKNOWN) {
+                return value;
+            }
+        }
+
+        // Remaining depth condition, the leaf value depends on the depth limit
+        if (depth == 0) {
+            depthLimitHits++;
+            if (quiescence) {
+                quiescenceBudget = QUIESCENCE_NODE_BUDGET;
+                return quiesce(state, alpha, beta);
+            }
+            return evaluate(state);
+        }
+
+        // Transposition table lookup. Exact scores, and bounds outside the
+        // alpha-beta window, from a search at least as deep can be used directly.
+        long key = state.getHash();
+        int hashMove = (ply == 0) ? pvMove : 0;
+        long entry = tt.probe(key);
+        if (entry != 0 && TranspositionTable.getMove(entry) != 0) {
+            hashMove = TranspositionTable.getMove(entry);
+            int ttScore = TranspositionTable.getScore(entry);
+            int ttBound = TranspositionTable.getBound(entry);
+            int ttDepth = TranspositionTable.getDepth(entry);
+            if (ttDepth >= depth
+                    && (ttBound == TranspositionTable.EXACT
+                    || (ttBound == TranspositionTable.LOWER && ttScore >= beta)
+                    || (ttBound == TranspositionTable.UPPER && ttScore <= alpha))) {
+                ttCutoffs++;
+                // Subtrees searched to the end of the game need no deeper IDDFS iteration
+                if (ttDepth != TranspositionTable.DEPTH_SOLVED) {
+                    depthLimitHits++;
+                }
+                if (ply == 0) {
+                    bestMove = hashMove;
+                }
+                pv[ply * plies] = hashMove;
+                pvLength[ply] = 1;
+                return ttScore;
+            }
+        }
+        int alphaOrig = alpha;
+        long hitsBefore = depthLimitHits;
+        int toMove = state.getNextPlayer();
+
+        int best = Integer.MIN_VALUE;
+        int bestMoveHere = 0;
+
+        // Legal moves only, best first
+        int moveCount = ordering.order(state, ply, hashMove);
+        int[] moves = ordering.getMoves(ply);
+        for (int n = 0; n < moveCount; n++) {
+            int move = moves[n];
+
+            state.makeMove(move, undo);
+            int score;
+            if (!pvs || n == 0 || beta - alpha == 1) {
+                score = child(state, toMove, depth - 1, alpha, beta);
+            } else {
+                // Null window: is the move better than alpha? Only then is the exact score needed
+                nullWindowSearches++;
+                score = child(state, toMove, depth - 1, alpha, alpha + 1);
+                if (score > alpha && score < beta && !aborted) {
+                    reSearches++;
+                    score = child(state, toMove, depth - 1, alpha, beta);
+                }
+            }
+            state.unmakeMove(undo);
+
+            if (aborted) {
+                return ABORTED;
+            }
+
+            if (score > best) {
+                best = score;
+                bestMoveHere = move;
+                updatePv(ply, move);
+                if (ply == 0 && score > alphaOrig) {
+                    // Usable even if the search is aborted later in this iteration
+                    partialMove = move;
+                    partialScore = score;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                }
+                if (score >= beta) {
+                    ordering.cutoff(state, ply, move, depth, n);
+                    break;
+                }
+            }
+        }
+
+        // Store result, bound type depends on where the score ended up relative to the original window
+        int bound = TranspositionTable.EXACT;
+        if (best <= alphaOrig) {
+            bound = TranspositionTable.UPPER;
+        } else if (best >= beta) {
+            bound = TranspositionTable.LOWER;
+        }
+        int storeDepth = (depthLimitHits == hitsBefore) ? TranspositionTable.DEPTH_SOLVED : depth;
+        tt.store(key, storeDepth, bound, best, bestMoveHere);
+
+        if (ply == 0) {
+            bestMove = bestMoveHere;
+        }
+        return best;
+    }
+
+    /**
+     * Searches the position after a move.
+     *
+     * @param state Game state after the move
+     * @param toMove Player who made the move
+     * @param depth Remaining depth
+     * @param alpha Lower bound of the search window, for the player who made the move
+     * @param beta Upper bound of the search window, for the player who made the move
+     * @return Score for the player who made the move
+     */
+    private int child(GameState state, int toMove, int depth, int alpha, int beta)
+    {
+        // An extra move keeps the perspective, otherwise the window is mirrored
+        if (state.getNextPlayer() == toMove) {
+            return negamax(state, depth, alpha, beta);
+        }
+        return -negamax(state, depth, -beta, -alpha);
+    }
+
+    /**
+     * Quiescence search: only captures and extra moves are searched, and
+     * the player to move may stand pat on the evaluation instead.
+     *
+     * @param state Game state, changed during the search and restored before returning
+     * @param alpha Lower bound of the search window
+     * @param beta Upper bound of the search window
+     * @return Score for the player to move
+     */
+    private int quiesce(GameState state, int alpha, int beta)
+    {
+        int ply = undo.size();
+        if (ply > selDepth) {
+            selDepth = ply;
+        }
+
+        if (state.gameEnded()) {
+            return evaluateEnd(state);
+        }
+
+        // Stand pat: the player can always play a quiet move instead
+        int best = evaluate(state);
+        if (best >= beta || quiescenceBudget <= 0 || ply + 1 >= plies) {
+            return best;
+        }
+        if (best > alpha) {
+            alpha = best;
+        }
+
+        // Extra moves first, then captures, in move number order
+        int toMove = state.getNextPlayer();
+        int mask = state.legalMoves();
+        int extra = 0;
+        int captures = 0;
+        while (mask != 0) {
+            int m = GameState.firstMove(mask);
+            mask &= mask - 1;
+            if (state.givesExtraMove(m)) {
+                extra |= 1 << (m - 1);
+            } else if (state.getCaptureSize(m) > 0) {
+                captures |= 1 << (m - 1);
+            }
+        }
+        while ((extra | captures) != 0) {
+            int move;
+            if (extra != 0) {
+                move = GameState.firstMove(extra);
+                extra &= extra - 1;
+            } else {
+                move = GameState.firstMove(captures);
+                captures &= captures - 1;
+            }
+
+            // Nodes below the depth limit are counted separately
+            nodes++;
+            quiescenceNodes++;
+            quiescenceBudget--;
+            state.makeMove(move, undo);
+            int score = (state.getNextPlayer() == toMove)
+                    ? quiesce(state, alpha, beta)
+                    : -quiesce(state, -beta, -alpha);
+            state.unmakeMove(undo);
+
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                }
+                if (score >= beta) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Makes a move the head of the principal variation at a ply, followed
+     * by the principal variation of the child.
+     *
+     * @param ply Ply from the search root
+     * @param move Best move at the ply
+     */
+    private void updatePv(int ply, int move)
+    {
+        int row = ply * plies;
+        pv[row] = move;
+        int len = (ply + 1 < plies) ? pvLength[ply + 1] : 0;
+        System.arraycopy(pv, row + plies, pv, row + 1, Math.min(len, plies - 1));
+        pvLength[ply] = Math.min(len, plies - 1) + 1;
+    }
+
+    /**
+     * Evaluates a position at the depth limit.
+     *
+     * @param state Game state
+     * @return Score difference for the player to move
+     */
+    private int evaluate(GameState state)
+    {
+        int score = AIClient.SCORE_DIFF_EVAL
+                ? state.getScore(player) - state.getScore(3 - player)
+                : state.getScore(player);
+        return (state.getNextPlayer() == player) ? score : -score;
+    }
+
+    /**
+     * Evaluates an ended game. Lost games are biased away from, so the
+     * AI drags a lost game on as long as possible.
+     *
+     * @param state Game state
+     * @return Score for the player to move
+     */
+    private int evaluateEnd(GameState state)
+    {
+        return endScore(state, state.getScore(player), state.getScore(3 - player));
+    }
+
+    /**
+     * Looks up the exact score of a position in the tablebase, as the
+     * search does below the root.
+     *
+     * @param state Game state, not ended
+     * @return Score for the player to move, or {@link Tablebase#UNKNOWN} if
+     * there is no tablebase or the position is not in it
+     */
+    int probeTablebase(GameState state)
+    {
+        if (tablebase == null) {
+            return Tablebase.UNKNOWN;
+        }
+        int value = tablebase.probe(state, tablebasePits);
+        if (value == Tablebase.UNKNOWN) {
+            return Tablebase.UNKNOWN;
+        }
+        tablebaseHits++;
+        return evaluateTablebase(state, value);
+    }
+
+    /**
+     * Evaluates a position from its tablebase value, as the ended game
+     * with perfect play.
+     *
+     * @param state Game state
+     * @param value Tablebase value: seeds the player to move will still get minus the opponent's
+     * @return Score for the player to move
+     */
+    private int evaluateTablebase(GameState state, int value)
+    {
+        int seeds = state.getSideSeeds(1) + state.getSideSeeds(2);
+        int gain = (seeds + value) / 2;
+        if (state.getNextPlayer() == player) {
+            return endScore(state, state.getScore(player) + gain, state.getScore(3 - player) + seeds - gain);
+        }
+        return endScore(state, state.getScore(player) + seeds - gain, state.getScore(3 - player) + gain);
+    }
+
+    /**
+     * Scores the final result of a game.
+     *
+     * @param state Game state
+     * @param own Final score of the AI player
+     * @param other Final score of the opponent
+     * @return Score for the player to move
+     */
+    private int endScore(GameState state, int own, int other)
+    {
+        int score = AIClient.SCORE_DIFF_EVAL ? own - other : own;
+        if (score < 0) {
+            score -= AIClient.LOSS_BIAS;
+        }
+        return (state.getNextPlayer() == player) ? score : -score;
+    }
+
+    /**
+     * Returns the best root move of the last search.
+     *
+     * @return Best move (1-6), or 0 if the root had no moves
+     */
+    public int getBestMove()
+    {
+        return bestMove;
+    }
+
+    /**
+     * Copies the principal variation of the last search.
+     *
+     * @param dst Destination for the moves
+     * @return Number of moves copied
+     */
+    public int getPv(int[] dst)
+    {
+        int len = Math.min(pvLength[0], dst.length);
+        System.arraycopy(pv, 0, dst, 0, len);
+        return len;
+    }
+
+    /**
+     * Returns the best root move among the root moves that were searched
+     * completely before the last search was aborted. Since the previous
+     * best move is searched first, this is normally that move with a score
+     * from the new depth, or a move that proved better.
+     *
+     * @return Move (1-6), or 0 if no root move was completed
+     */
+    public int getPartialMove()
+    {
+        return partialMove;
+    }
+
+    /**
+     * Returns the score of {@link #getPartialMove()}.
+     *
+     * @return Score for the player to move
+     */
+    public int getPartialScore()
+    {
+        return partialScore;
+    }
+
+    /**
+     * Checks if the last search ran out of time. The score and best move
+     * of an aborted search are not valid.
+     *
+     * @return True if the deadline was reached
+     */
+    public boolean isAborted()
+    {
+        return aborted;
+    }
+
+    /**
+     * Checks if the last search reached the end of the game on every line,
+     * so that a deeper search would give the same result.
+     *
+     * @return True if no line was cut off by the depth limit
+     */
+    public boolean isSolved()
+    {
+        return !aborted && depthLimitHits == 0;
+    }
+
+    /**
+     * Returns the number of nodes visited since the last {@link #newSearch}.
+     *
+     * @return Node count
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of transposition table cutoffs since the last {@link #newSearch}.
+     *
+     * @return Cutoff count
+     */
+    public long getTtCutoffs()
+    {
+        return ttCutoffs;
+    }
+
+    /**
+     * Returns the number of null-window searches since the last {@link #newSearch}.
+     *
+     * @return Null-window search count
+     */
+    public long getNullWindowSearches()
+    {
+        return nullWindowSearches;
+    }
+
+    /**
+     * Returns the number of null-window searches that failed high and were
+     * searched again with the full window, since the last {@link #newSearch}.
+     *
+     * @return Re-search count
+     */
+    public long getReSearches()
+    {
+        return reSearches;
+    }
+
+    /**
+     * Returns the number of aspiration searches since the last {@link #newSearch}.
+     *
+     * @return Aspiration search count
+     */
+    public long getAspirationSearches()
+    {
+        return aspirationSearches;
+    }
+
+    /**
+     * Returns the number of times an aspiration window had to be widened
+     * since the last {@link #newSearch}.
+     *
+     * @return Aspiration failure count
+     */
+    public long getAspirationFails()
+    {
+        return aspirationFails;
+    }
+
+    /**
+     * Returns the number of MTD(f) null-window passes since the last {@link #newSearch}.
+     *
+     * @return Pass count
+     */
+    public long getMtdfPasses()
+    {
+        return mtdfPasses;
+    }
+
+    /**
+     * Returns the number of positions valued by the tablebase since the last {@link #newSearch}.
+     *
+     * @return Tablebase hit count
+     */
+    public long getTablebaseHits()
+    {
+        return tablebaseHits;
+    }
+
+    /**
+     * Returns the number of nodes visited by the quiescence search since the
+     * last {@link #newSearch}. They are included in {@link #getNodes()}.
+     *
+     * @return Quiescence node count
+     */
+    public long getQuiescenceNodes()
+    {
+        return quiescenceNodes;
+    }
+
+    /**
+     * Returns the deepest ply reached since the last {@link #newSearch}.
+     *
+     * @return Selective depth
+     */
+    public int getSelDepth()
+    {
+        return selDepth;
+    }
+
+    /**
+     * Returns the transposition table of this searcher.
+     *
+     * @return Transposition table
+     */
+    public TranspositionTable getTranspositionTable()
+    {
+        return tt;
+    }
+
+    /**
+     * Returns the move ordering of this searcher.
+     *
+     * @return Move ordering
+     */
+    public MoveOrdering getOrdering()
+    {
+        return ordering;
+    }
+}
@@ -0,0 +1,178 @@
+package ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import kalaha.*;
+
+/**
+ * Endgame tablebase with the exact value of every position with at most
+ * {@link #getMaxSeeds()} seeds left in the ambos, read from files
+ * generated by {@link TablebaseGenerator}.
+ * <p>
+ * Seeds already in the houses never move again, so they are left out of the
+ * position. The value of a position is the number of seeds the player to
+ * move will still get into their house, minus the number the opponent will
+ * still get, with both players playing perfectly.
+ * <p>
+ * Positions are seen from the player to move: their ambos 1-6 followed by
+ * the opponent's ambos 1-6. Each seed count has its own file with one
+ * signed byte per position, at a perfect index from the combinatorial
+ * number system (see {@link #index(int[])}). The files are memory-mapped,
+ * so only the parts used by the search are read from disk.
+ */
+public class Tablebase
+{
+    // Returned by probe() for positions not in the tablebase
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    // Largest seed count an index fits in an int for
+    public static final int MAX_SEEDS = 24;
+
+    // Number of ambos in a position
+    static final int PITS = 12;
+
+    // BINOMIAL[n][k] = n over k, for k up to PITS - 1
+    static final long[][] BINOMIAL = new long[MAX_SEEDS + PITS][PITS];
+    static {
+        for (int n = 0; n < BINOMIAL.length; n++) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k < PITS && k <= n; k++) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+            }
+        }
+    }
+
+    private final MappedByteBuffer[] levels;
+
+    /**
+     * Opens the tablebase files in a directory. Seed counts are read from
+     * 0 up to the first file that is missing.
+     *
+     * @param dir Directory with the tablebase files
+     * @throws IOException If a file could not be mapped or has the wrong size
+     */
+    public Tablebase(File dir) throws IOException
+    {
+        int maxSeeds = -1;
+        while (maxSeeds < MAX_SEEDS && getFile(dir, maxSeeds + 1).isFile()) {
+            maxSeeds++;
+        }
+        levels = new MappedByteBuffer[maxSeeds + 1];
+        for (int seeds = 0; seeds <= maxSeeds; seeds++) {
+            File f = getFile(dir, seeds);
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                if (raf.length() != size(seeds)) {
+                    throw new IOException("Tablebase file " + f + " has " + raf.length()
+                            + " bytes, expected " + size(seeds));
+                }
+                levels[seeds] = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                // The mapping stays valid after the file is closed
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the file for a seed count.
+     *
+     * @param dir Tablebase directory
+     * @param seeds Seeds in the ambos
+     * @return Tablebase file
+     */
+    static File getFile(File dir, int seeds)
+    {
+        return new File(dir, "kalaha-" + seeds + ".tb");
+    }
+
+    /**
+     * Returns the number of positions with a seed count.
+     *
+     * @param seeds Seeds in the ambos
+     * @return Number of positions, which is also the file size in bytes
+     */
+    static int size(int seeds)
+    {
+        return (int)BINOMIAL[seeds + PITS - 1][PITS - 1];
+    }
+
+    /**
+     * Returns the index of a position among the positions with the same
+     * seed count. The partial sums of the seeds, shifted by their position,
+     * form a strictly increasing sequence that is ranked in the
+     * combinatorial number system.
+     *
+     * @param pits Seeds in the ambos of the player to move (0-5) and of the opponent (6-11)
+     * @return Index from 0 to {@code size(seeds) - 1}
+     */
+    static int index(int[] pits)
+    {
+        long index = 0;
+        int sum = 0;
+        for (int j = 0; j < PITS - 1; j++) {
+            sum += pits[j];
+            index += BINOMIAL[sum + j][j + 1];
+        }
+        return (int)index;
+    }
+
+    /**
+     * Finds the position at an index, the inverse of {@link #index}.
+     *
+     * @param index Index of the position
+     * @param seeds Total number of seeds in the ambos
+     * @param pits Destination for the seeds in the ambos
+     */
+    static void position(int index, int seeds, int[] pits)
+    {
+        long rest = index;
+        int next = seeds + PITS - 1;
+        for (int j = PITS - 2; j >= 0; j--) {
+            // Largest b with BINOMIAL[b][j + 1] <= rest
+            int b = next - 1;
+            while (BINOMIAL[b][j + 1] > rest) {
+                b--;
+            }
+            rest -= BINOMIAL[b][j + 1];
+            pits[j + 1] = next - b - 1;
+            next = b;
+        }
+        pits[0] = next;
+    }
+
+    /**
+     * Looks up the value of a position.
+     *
+     * @param state Game state, not ended
+     * @param pits Scratch array of at least 12 entries
+     * @return Seeds the player to move will still get minus the seeds the opponent will still get,
+     * or {@link #UNKNOWN} if there are too many seeds left
+     */
+    public int probe(GameState state, int[] pits)
+    {
+        int seeds = state.getSideSeeds(1) + state.getSideSeeds(2);
+        if (seeds >= levels.length) {
+            return UNKNOWN;
+        }
+        int me = state.getNextPlayer();
+        for (int i = 0; i < 6; i++) {
+            pits[i] = state.getSeeds(i + 1, me);
+            pits[i + 6] = state.getSeeds(i + 1, 3 - me);
+        }
+        return levels[seeds].get(index(pits));
+    }
+
+    /**
+     * Returns the largest seed count in the tablebase.
+     *
+     * @return Seeds in the ambos, -1 if the tablebase is empty
+     */
+    public int getMaxSeeds()
+    {
+        return levels.length - 1;
+    }
+}
@@ -0,0 +1,297 @@
+package ai;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import kalaha.*;
+
+/**
+ * Generates the {@link Tablebase} files by retrograde analysis, one seed
+ * count at a time from 0 seeds upwards.
+ * <p>
+ * A move either puts seeds into a house (by sowing past it, capturing or
+ * ending the game), which leads to a position with fewer seeds that is
+ * already solved, or it only moves seeds further along the mover's own
+ * side. The second kind strictly increases the potential of the position,
+ * the sum over all seeds of how far along its side the seed is. Positions
+ * with the same seed count are therefore solved from the highest potential
+ * down, and all positions with the same potential are solved in parallel.
+ * <p>
+ * Files that already exist are read instead of generated again, so a
+ * tablebase can be extended to more seeds later.
+ * <p>
+ * Usage: {@code java ai.TablebaseGenerator <dir> [max seeds] [threads]}
+ */
+public class TablebaseGenerator
+{
+    static final int DEFAULT_SEEDS = 16;
+
+    // Number of positions solved by one task
+    static final int CHUNK = 4096;
+
+    private final int maxSeeds;
+    private final int threads;
+
+    // Values per seed count, by position index
+    private final byte[][] values;
+
+    /**
+     * Creates a new generator.
+     *
+     * @param maxSeeds Largest seed count to generate
+     * @param threads Number of threads to use
+     */
+    public TablebaseGenerator(int maxSeeds, int threads)
+    {
+        if (maxSeeds < 0 || maxSeeds > Tablebase.MAX_SEEDS) {
+            throw new IllegalArgumentException("Seed count must be 0-" + Tablebase.MAX_SEEDS + ": " + maxSeeds);
+        }
+        this.maxSeeds = maxSeeds;
+        this.threads = Math.max(1, threads);
+        values = new byte[maxSeeds + 1][];
+    }
+
+    /**
+     * Generates the missing tablebase files in a directory.
+     *
+     * @param dir Tablebase directory, created if missing
+     * @throws IOException If a file could not be read or written
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    public void generate(File dir) throws IOException, InterruptedException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int seeds = 0; seeds <= maxSeeds; seeds++) {
+                File f = Tablebase.getFile(dir, seeds);
+                long start = System.currentTimeMillis();
+                if (f.isFile() && f.length() == Tablebase.size(seeds)) {
+                    values[seeds] = read(f);
+                    System.out.println(seeds + " seeds: read " + f);
+                } else {
+                    values[seeds] = new byte[Tablebase.size(seeds)];
+                    solveLevel(seeds, pool);
+                    write(f, values[seeds]);
+                    System.out.println(seeds + " seeds: " + values[seeds].length + " positions in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Solves all positions with a seed count, from the highest potential down.
+     *
+     * @param seeds Seeds in the ambos
+     * @param pool Thread pool
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    private void solveLevel(final int seeds, ExecutorService pool) throws InterruptedException
+    {
+        final int size = Tablebase.size(seeds);
+        final int maxPotential = 5 * seeds;
+
+        // Potential of every position
+        final short[] potential = new short[size];
+        runChunks(pool, size, new Chunk() {
+            public void run(int from, int to) {
+                int[] pits = new int[Tablebase.PITS];
+                for (int i = from; i < to; i++) {
+                    Tablebase.position(i, seeds, pits);
+                    potential[i] = (short)potential(pits);
+                }
+            }
+        });
+
+        // Positions sorted by potential (counting sort)
+        int[] first = new int[maxPotential + 2];
+        for (int i = 0; i < size; i++) {
+            first[potential[i] + 1]++;
+        }
+        for (int p = 0; p <= maxPotential; p++) {
+            first[p + 1] += first[p];
+        }
+        final int[] order = new int[size];
+        int[] next = first.clone();
+        for (int i = 0; i < size; i++) {
+            order[next[potential[i]]++] = i;
+        }
+
+        for (int p = maxPotential; p >= 0; p--) {
+            final int from = first[p];
+            runChunks(pool, first[p + 1] - from, new Chunk() {
+                public void run(int lo, int hi) {
+                    int[] pits = new int[Tablebase.PITS];
+                    UndoStack undo = new UndoStack(1);
+                    for (int i = from + lo; i < from + hi; i++) {
+                        values[seeds][order[i]] = (byte)solve(seeds, order[i], pits, undo);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Solves one position. All positions it can move to must be solved.
+     *
+     * @param seeds Seeds in the ambos
+     * @param index Index of the position
+     * @param pits Scratch array of 12 entries
+     * @param undo Undo stack with room for one move
+     * @return Value of the position
+     */
+    private int solve(int seeds, int index, int[] pits, UndoStack undo)
+    {
+        Tablebase.position(index, seeds, pits);
+        int[] board = new int[14];
+        for (int i = 0; i < 6; i++) {
+            board[GameState.START_S + i] = pits[i];
+            board[GameState.START_N + i] = pits[i + 6];
+        }
+        GameState state = new GameState(board, 1);
+        if (state.gameEnded()) {
+            return state.getScore(1) - state.getScore(2);
+        }
+
+        int best = Integer.MIN_VALUE;
+        int mask = state.legalMoves();
+        while (mask != 0) {
+            int m = GameState.firstMove(mask);
+            mask &= mask - 1;
+
+            state.makeMove(m, undo);
+            // Seeds gained by the move, the houses were empty before it
+            int value = state.getScore(1) - state.getScore(2);
+            if (!state.isTerminal()) {
+                int next = state.getNextPlayer();
+                int left = state.getSideSeeds(1) + state.getSideSeeds(2);
+                for (int i = 0; i < 6; i++) {
+                    pits[i] = state.getSeeds(i + 1, next);
+                    pits[i + 6] = state.getSeeds(i + 1, 3 - next);
+                }
+                int child = values[left][Tablebase.index(pits)];
+                value += (next == 1) ? child : -child;
+            }
+            state.unmakeMove(undo);
+
+            if (value > best) {
+                best = value;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the potential of a position: the sum over all seeds of how
+     * many ambos along its side the seed is.
+     *
+     * @param pits Seeds in the ambos
+     * @return Potential, 0 to 5 times the number of seeds
+     */
+    static int potential(int[] pits)
+    {
+        int p = 0;
+        for (int i = 0; i < 6; i++) {
+            p += i * (pits[i] + pits[i + 6]);
+        }
+        return p;
+    }
+
+    /**
+     * Part of a range of positions, solved by one task.
+     */
+    private interface Chunk
+    {
+        void run(int from, int to);
+    }
+
+    /**
+     * Splits a range into chunks, runs them on the pool and waits for them.
+     *
+     * @param pool Thread pool
+     * @param n Size of the range
+     * @param chunk Work for one chunk
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    private static void runChunks(ExecutorService pool, int n, final Chunk chunk) throws InterruptedException
+    {
+        List<Future<?>> tasks = new ArrayList<Future<?>>();
+        for (int from = 0; from < n; from += CHUNK) {
+            final int lo = from;
+            final int hi = Math.min(n, from + CHUNK);
+            tasks.add(pool.submit(new Runnable() {
+                public void run() {
+                    chunk.run(lo, hi);
+                }
+            }));
+        }
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Tablebase generation failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Reads a tablebase file.
+     *
+     * @param f File
+     * @return Values
+     * @throws IOException If the file could not be read
+     */
+    private static byte[] read(File f) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            byte[] data = new byte[(int)raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes a tablebase file.
+     *
+     * @param f File
+     * @param data Values
+     * @throws IOException If the file could not be written
+     */
+    private static void write(File f, byte[] data) throws IOException
+    {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1) {
+            System.out.println("Usage: java ai.TablebaseGenerator <dir> [max seeds] [threads]");
+            return;
+        }
+        int seeds = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_SEEDS;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        new TablebaseGenerator(seeds, threads).generate(new File(args[0]));
+    }
+}
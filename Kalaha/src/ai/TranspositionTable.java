@@ -0,0 +1,251 @@
+package ai;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size transposition table for the MiniMax search, keyed on the
+ * Zobrist hash of a game state. All entries live in one preallocated flat
+ * long array, so storing and probing never allocates.
+ * <p>
+ * The table can be shared by several search threads without locks. Each
+ * entry is stored as two longs, the key XOR the packed data, and the packed
+ * data. An entry torn by concurrent writes no longer XORs back to its key and
+ * is treated as a miss, so probes only ever see complete entries. The
+ * statistics counters are not synchronized and are approximate when shared.
+ * <p>
+ * Entries are grouped in buckets of two. The first slot is depth-preferred:
+ * it is only replaced by a search of at least the same depth, or if the
+ * entry is from an older search (generation). The second slot is always
+ * replaced. The table is meant to be kept for the whole game, and
+ * {@link #newSearch()} is called once per move to age old entries.
+ */
+public class TranspositionTable
+{
+    /**
+     * Bound type: stored score is the exact value.
+     */
+    public static final int EXACT = 1;
+
+    /**
+     * Bound type: stored score is a lower bound (search failed high).
+     */
+    public static final int LOWER = 2;
+
+    /**
+     * Bound type: stored score is an upper bound (search failed low).
+     */
+    public static final int UPPER = 3;
+
+    /**
+     * Depth stored for subtrees that were searched to the end of the game,
+     * so their value holds at any depth.
+     */
+    public static final int DEPTH_SOLVED = 255;
+
+    // Bytes per entry (key XOR data + data)
+    static final int ENTRY_BYTES = 16;
+
+    // Packed data layout: score (32 bits) | move (3) | bound (2) | depth (8) | generation (8)
+    static final int MOVE_SHIFT = 32;
+    static final int BOUND_SHIFT = 35;
+    static final int DEPTH_SHIFT = 37;
+    static final int GEN_SHIFT = 45;
+
+    // Entry i at [2 * i] (key XOR data) and [2 * i + 1] (data), two entries per bucket
+    private final long[] table;
+    private final int bucketMask;
+    private int generation;
+
+    // Statistics
+    private long probes;
+    private long hits;
+    private long stores;
+
+    /**
+     * Creates a new transposition table.
+     *
+     * @param sizeMb Table size in megabytes (rounded down to a power of two number of buckets)
+     */
+    public TranspositionTable(int sizeMb)
+    {
+        long entries = Math.max(2, (long)sizeMb * 1024 * 1024 / ENTRY_BYTES);
+        int buckets = Integer.highestOneBit((int)Math.min(entries / 2, 1 << 29));
+        table = new long[buckets * 4];
+        bucketMask = buckets - 1;
+    }
+
+    /**
+     * Starts a new search (a new move in the game). Entries from older
+     * searches are preferred for replacement.
+     */
+    public void newSearch()
+    {
+        generation = (generation + 1) & 0xFF;
+        probes = 0;
+        hits = 0;
+        stores = 0;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear()
+    {
+        Arrays.fill(table, 0);
+    }
+
+    /**
+     * Looks up a position. The fields of a hit are read from the returned
+     * data with {@link #getScore(long)}, {@link #getMove(long)},
+     * {@link #getBound(long)} and {@link #getDepth(long)}.
+     *
+     * @param key Position key
+     * @return Packed entry data, or 0 if the position was not found
+     */
+    public long probe(long key)
+    {
+        probes++;
+        int i = index(key);
+        for (int j = i; j < i + 4; j += 2) {
+            long d = table[j + 1];
+            if ((table[j] ^ d) == key && d != 0) {
+                hits++;
+                return d;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Stores a search result.
+     *
+     * @param key Position key
+     * @param depth Remaining depth the position was searched to, or {@link #DEPTH_SOLVED}
+     * @param bound Bound type ({@link #EXACT}, {@link #LOWER} or {@link #UPPER})
+     * @param score Score
+     * @param move Best move (1-6), or 0 if none
+     */
+    public void store(long key, int depth, int bound, int score, int move)
+    {
+        stores++;
+        int i = index(key);
+        long d = (score & 0xFFFFFFFFL)
+                | ((long)(move & 0x7) << MOVE_SHIFT)
+                | ((long)bound << BOUND_SHIFT)
+                | ((long)Math.min(depth, DEPTH_SOLVED) << DEPTH_SHIFT)
+                | ((long)generation << GEN_SHIFT);
+
+        // Depth-preferred slot: same position, deeper search, or stale entry
+        long old = table[i + 1];
+        long oldKey = table[i] ^ old;
+        int oldDepth = (int)(old >>> DEPTH_SHIFT) & 0xFF;
+        int oldGen = (int)(old >>> GEN_SHIFT) & 0xFF;
+        if (old == 0 || oldKey == key || depth >= oldDepth || oldGen != generation) {
+            // Keep the displaced entry in the always-replace slot
+            if (old != 0 && oldKey != key) {
+                table[i + 2] = oldKey ^ old;
+                table[i + 3] = old;
+            }
+            table[i] = key ^ d;
+            table[i + 1] = d;
+        } else {
+            table[i + 2] = key ^ d;
+            table[i + 3] = d;
+        }
+    }
+
+    /**
+     * Returns the first slot of the bucket for a key.
+     *
+     * @param key Position key
+     * @return Array index of the bucket
+     */
+    private int index(long key)
+    {
+        return ((int)(key ^ (key >>> 32)) & bucketMask) << 2;
+    }
+
+    /**
+     * Returns the score of a probe hit.
+     *
+     * @param data Entry data returned by {@link #probe(long)}
+     * @return Score
+     */
+    public static int getScore(long data)
+    {
+        return (int)data;
+    }
+
+    /**
+     * Returns the best move of a probe hit.
+     *
+     * @param data Entry data returned by {@link #probe(long)}
+     * @return Best move (1-6), or 0 if none was stored
+     */
+    public static int getMove(long data)
+    {
+        return (int)(data >>> MOVE_SHIFT) & 0x7;
+    }
+
+    /**
+     * Returns the bound type of a probe hit.
+     *
+     * @param data Entry data returned by {@link #probe(long)}
+     * @return Bound type
+     */
+    public static int getBound(long data)
+    {
+        return (int)(data >>> BOUND_SHIFT) & 0x3;
+    }
+
+    /**
+     * Returns the depth of a probe hit.
+     *
+     * @param data Entry data returned by {@link #probe(long)}
+     * @return Remaining depth, or {@link #DEPTH_SOLVED}
+     */
+    public static int getDepth(long data)
+    {
+        return (int)(data >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Returns the number of probes since the last {@link #newSearch()}.
+     *
+     * @return Probe count
+     */
+    public long getProbes()
+    {
+        return probes;
+    }
+
+    /**
+     * Returns the number of probe hits since the last {@link #newSearch()}.
+     *
+     * @return Hit count
+     */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of stores since the last {@link #newSearch()}.
+     *
+     * @return Store count
+     */
+    public long getStores()
+    {
+        return stores;
+    }
+
+    /**
+     * Returns the number of entries the table can hold.
+     *
+     * @return Number of entries
+     */
+    public int capacity()
+    {
+        return table.length / 2;
+    }
+}
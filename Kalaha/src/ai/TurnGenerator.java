@@ -0,0 +1,322 @@
+package ai;
+
+import java.util.Arrays;
+import kalaha.*;
+
+/**
+ * Generates whole turns: a move followed by all extra moves it gives, up to
+ * the change of side (or the end of the game). Each turn is a sequence of
+ * moves (1-6) made by the same player.
+ * <p>
+ * Different orders of extra moves often lead to the same position. Such
+ * transposing chains are generated once: a position already reached during
+ * the generation of a turn is not expanded again, and turns ending in the
+ * same position are kept only once.
+ * <p>
+ * Turns are stored per ply in preallocated buffers, which grow when a
+ * position has more or longer turns than seen before.
+ */
+public class TurnGenerator
+{
+    // Turns per ply: moves of turn i are moves[start[i]] to moves[start[i + 1] - 1]
+    private int[][] moves = new int[0][];
+    private int[][] starts = new int[0][];
+    private long[][] endHashes = new long[0][];
+    private int[][] keys = new int[0][];
+
+    // Turn indices per ply, best first
+    private int[][] orders = new int[0][];
+
+    // Moves of the turn being generated
+    private int[] path = new int[16];
+
+    // Positions reached during the generation of one turn list, open addressing
+    private long[] seen = new long[256];
+    private int seenCount;
+
+    // Ply and player of the turn list being generated
+    private int genPly;
+    private int genPlayer;
+    private int count;
+
+    // Statistics
+    private long transpositions;
+
+    /**
+     * Creates a new turn generator.
+     *
+     * @param plies Initial maximum search depth in turns
+     */
+    public TurnGenerator(int plies)
+    {
+        ensureCapacity(plies);
+    }
+
+    /**
+     * Makes sure turn buffers exist for a number of plies.
+     *
+     * @param plies Maximum search depth in turns
+     */
+    public void ensureCapacity(int plies)
+    {
+        if (moves.length >= plies) {
+            return;
+        }
+        int[][] m = new int[plies][];
+        int[][] s = new int[plies][];
+        long[][] h = new long[plies][];
+        int[][] k = new int[plies][];
+        int[][] o = new int[plies][];
+        for (int i = 0; i < plies; i++) {
+            m[i] = (i < moves.length) ? moves[i] : new int[32];
+            s[i] = (i < starts.length) ? starts[i] : new int[9];
+            h[i] = (i < endHashes.length) ? endHashes[i] : new long[8];
+            k[i] = (i < keys.length) ? keys[i] : new int[8];
+            o[i] = (i < orders.length) ? orders[i] : new int[8];
+        }
+        moves = m;
+        starts = s;
+        endHashes = h;
+        keys = k;
+        orders = o;
+    }
+
+    /**
+     * Generates the turns of the player to move. The game state is left
+     * unchanged. Turns are ordered by the score of the position they end in
+     * for the player to move, best first, except that turns starting with
+     * the hash move go first. The order is read with {@link #getOrder(int)}.
+     *
+     * @param state Game state, changed during generation and restored before returning
+     * @param undo Undo stack with room for the longest turn
+     * @param ply Ply (in turns) from the search root
+     * @param hashMove First move of the turn to try first (1-6), or 0 if none
+     * @return Number of turns, 0 if the game has ended
+     */
+    public int generate(GameState state, UndoStack undo, int ply, int hashMove)
+    {
+        genPly = ply;
+        genPlayer = state.getNextPlayer();
+        count = 0;
+        starts[ply][0] = 0;
+        clearSeen();
+        if (!state.isTerminal()) {
+            expand(state, undo, 0);
+        }
+
+        // Keys are the score difference for player 1, turn them to the player to move
+        int sign = (genPlayer == 1) ? 1 : -1;
+        int[] key = keys[ply];
+        for (int i = 0; i < count; i++) {
+            key[i] *= sign;
+            if (moves[ply][starts[ply][i]] == hashMove) {
+                key[i] = Integer.MAX_VALUE;
+            }
+        }
+        sort(ply);
+        return count;
+    }
+
+    /**
+     * Makes every legal move from a position in the middle of a turn,
+     * recording the turns that end and expanding those that continue.
+     *
+     * @param state Game state
+     * @param undo Undo stack
+     * @param len Number of moves made so far in this turn
+     */
+    private void expand(GameState state, UndoStack undo, int len)
+    {
+        int mask = state.legalMoves();
+        while (mask != 0) {
+            int m = GameState.firstMove(mask);
+            mask &= mask - 1;
+
+            state.makeMove(m, undo);
+            if (len + 1 > path.length) {
+                int[] p = new int[path.length * 2];
+                System.arraycopy(path, 0, p, 0, path.length);
+                path = p;
+            }
+            path[len] = m;
+            if (addSeen(state.getHash())) {
+                if (state.isTerminal() || state.getNextPlayer() != genPlayer) {
+                    record(state, len + 1);
+                } else {
+                    expand(state, undo, len + 1);
+                }
+            } else {
+                transpositions++;
+            }
+            state.unmakeMove(undo);
+        }
+    }
+
+    /**
+     * Stores the current path as a turn.
+     *
+     * @param state Game state at the end of the turn
+     * @param len Number of moves in the turn
+     */
+    private void record(GameState state, int len)
+    {
+        int ply = genPly;
+        if (count + 2 > starts[ply].length) {
+            int size = starts[ply].length * 2;
+            int[] s = new int[size];
+            System.arraycopy(starts[ply], 0, s, 0, count + 1);
+            starts[ply] = s;
+            long[] h = new long[size];
+            System.arraycopy(endHashes[ply], 0, h, 0, count);
+            endHashes[ply] = h;
+            int[] k = new int[size];
+            System.arraycopy(keys[ply], 0, k, 0, count);
+            keys[ply] = k;
+        }
+        int off = starts[ply][count];
+        if (off + len > moves[ply].length) {
+            int[] m = new int[Math.max(moves[ply].length * 2, off + len)];
+            System.arraycopy(moves[ply], 0, m, 0, off);
+            moves[ply] = m;
+        }
+        System.arraycopy(path, 0, moves[ply], off, len);
+        endHashes[ply][count] = state.getHash();
+        keys[ply][count] = state.getScore(1) - state.getScore(2);
+        starts[ply][count + 1] = off + len;
+        count++;
+    }
+
+    /**
+     * Orders the turns of a ply by key, highest first. Turns with equal keys
+     * keep their generation order.
+     *
+     * @param ply Ply from the search root
+     */
+    private void sort(int ply)
+    {
+        int[] key = keys[ply];
+        if (orders[ply].length < count) {
+            orders[ply] = new int[keys[ply].length];
+        }
+        int[] order = orders[ply];
+        for (int i = 0; i < count; i++) {
+            int j = i;
+            while (j > 0 && key[order[j - 1]] < key[i]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+    }
+
+    /**
+     * Forgets the positions reached during the previous generation.
+     */
+    private void clearSeen()
+    {
+        if (seenCount > 0) {
+            Arrays.fill(seen, 0);
+            seenCount = 0;
+        }
+    }
+
+    /**
+     * Adds a position to the set of positions reached during this generation.
+     *
+     * @param hash Zobrist hash of the position
+     * @return True if the position was not reached before
+     */
+    private boolean addSeen(long hash)
+    {
+        // 0 marks an empty slot
+        if (hash == 0) {
+            hash = 1;
+        }
+        if (2 * (seenCount + 1) > seen.length) {
+            long[] old = seen;
+            seen = new long[old.length * 2];
+            seenCount = 0;
+            for (long h : old) {
+                if (h != 0) {
+                    addSeen(h);
+                }
+            }
+        }
+        int mask = seen.length - 1;
+        int i = (int)(hash ^ (hash >>> 32)) & mask;
+        while (seen[i] != 0) {
+            if (seen[i] == hash) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        seen[i] = hash;
+        seenCount++;
+        return true;
+    }
+
+    /**
+     * Returns the order of the turns generated for a ply.
+     *
+     * @param ply Ply from the search root
+     * @return Turn indices, best first
+     */
+    public int[] getOrder(int ply)
+    {
+        return orders[ply];
+    }
+
+    /**
+     * Returns the moves of the turns generated for a ply. Turn i is
+     * {@code getMoves(ply)[getStarts(ply)[i]]} up to, but not including,
+     * {@code getMoves(ply)[getStarts(ply)[i + 1]]}.
+     *
+     * @param ply Ply from the search root
+     * @return Move buffer
+     */
+    public int[] getMoves(int ply)
+    {
+        return moves[ply];
+    }
+
+    /**
+     * Returns the start offsets of the turns generated for a ply.
+     *
+     * @param ply Ply from the search root
+     * @return Start offsets, one more than the number of turns
+     */
+    public int[] getStarts(int ply)
+    {
+        return starts[ply];
+    }
+
+    /**
+     * Returns the hashes of the positions the turns of a ply end in, by turn index.
+     *
+     * @param ply Ply from the search root
+     * @return End position hashes
+     */
+    public long[] getEndHashes(int ply)
+    {
+        return endHashes[ply];
+    }
+
+    /**
+     * Returns the number of move sequences skipped because they reached a
+     * position already reached by another sequence.
+     *
+     * @return Transposition count
+     */
+    public long getTranspositions()
+    {
+        return transpositions;
+    }
+
+    /**
+     * Resets the statistics.
+     */
+    public void resetStatistics()
+    {
+        transpositions = 0;
+    }
+}
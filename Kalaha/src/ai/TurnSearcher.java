@@ -0,0 +1,372 @@
+package ai;
+
+import kalaha.*;
+
+/**
+ * Negamax alpha-beta search over whole turns. A turn is a move together
+ * with all extra moves it gives, as generated by {@link TurnGenerator}, so
+ * every edge of the tree is a change of side and the depth counts turns
+ * instead of single moves.
+ * <p>
+ * Extra moves are forced continuations of the same player, so searching
+ * them as part of the turn keeps the depth from being spent on them. Orders
+ * of extra moves that lead to the same position are searched once.
+ * <p>
+ * Scores are seen from the player to move, like in {@link Searcher}. The
+ * transposition table stores the first move of the best turn, and depths
+ * in turns, so it must not be shared with a {@link Searcher}.
+ */
+public class TurnSearcher
+{
+    // Returned when the search is aborted, the value is not used
+    static final int ABORTED = 0;
+
+    // Nodes between checks of the clock
+    static final int POLL_INTERVAL = 1024;
+
+    private final int player;
+    private final TranspositionTable tt;
+    private final TurnGenerator generator;
+    private UndoStack undo;
+    private int plies;
+
+    // Search control
+    private long deadline = Long.MAX_VALUE;
+    private int pollCountdown;
+    private int pvMove;
+
+    // Result of the last search
+    private int[] bestTurn = new int[16];
+    private int bestTurnLength;
+    private boolean aborted;
+    private long depthLimitHits;
+
+    // Statistics, reset by newSearch()
+    private long nodes;
+    private long turns;
+    private long ttCutoffs;
+
+    /**
+     * Creates a new turn searcher.
+     *
+     * @param player The player the AI plays as (1 or 2)
+     * @param tt Transposition table, used only by this searcher
+     */
+    public TurnSearcher(int player, TranspositionTable tt)
+    {
+        this.player = player;
+        this.tt = tt;
+        generator = new TurnGenerator(16);
+        undo = new UndoStack(0);
+    }
+
+    /**
+     * Starts a new search (a new move in the game). Resets the statistics
+     * and the root move hint.
+     *
+     * @param deadline Time (System.currentTimeMillis()) at which the search is aborted
+     */
+    public void newSearch(long deadline)
+    {
+        this.deadline = deadline;
+        pollCountdown = 0;
+        pvMove = 0;
+        nodes = 0;
+        turns = 0;
+        ttCutoffs = 0;
+        generator.resetStatistics();
+    }
+
+    /**
+     * Sets the move that starts the turn searched first at the root,
+     * normally the first move of the best turn of the previous iteration.
+     *
+     * @param move Move (1-6), or 0 for none
+     */
+    public void setPvMove(int move)
+    {
+        pvMove = move;
+    }
+
+    /**
+     * Searches a position to a fixed depth in turns. The game state is left unchanged.
+     *
+     * @param state Game state
+     * @param depth Search depth in turns
+     * @param alpha Lower bound of the search window
+     * @param beta Upper bound of the search window
+     * @return Score for the player to move, not valid if {@link #isAborted()}
+     */
+    public int search(GameState state, int depth, int alpha, int beta)
+    {
+        // A turn has at most one move per seed, each extra move puts a seed in the house
+        int maxTurn = state.getSideSeeds(1) + state.getSideSeeds(2) + 1;
+        if (undo.capacity() < (depth + 1) * maxTurn) {
+            undo = new UndoStack((depth + 1) * maxTurn);
+        }
+        if (plies < depth + 1) {
+            plies = depth + 1;
+            generator.ensureCapacity(plies);
+        }
+        undo.clear();
+        aborted = false;
+        depthLimitHits = 0;
+        bestTurnLength = 0;
+        return negamax(state, depth, 0, alpha, beta);
+    }
+
+    /**
+     * Recursive negamax with alpha-beta pruning over turns.
+     *
+     * @param state Game state, changed during the search and restored before returning
+     * @param depth Remaining depth in turns
+     * @param ply Turns from the search root
+     * @param alpha Lower bound of the search window
+     * @param beta Upper bound of the search window
+     * @return Score for the player to move
+     */
+    private int negamax(GameState state, int depth, int ply, int alpha, int beta)
+    {
+        nodes++;
+
+        // Time-break condition, the clock is only read every POLL_INTERVAL nodes
+        if (--pollCountdown <= 0) {
+            pollCountdown = POLL_INTERVAL;
+            if (System.currentTimeMillis() > deadline) {
+                aborted = true;
+            }
+        }
+        if (aborted) {
+            return ABORTED;
+        }
+
+        // End-game condition
+        if (state.gameEnded()) {
+            return evaluate(state, true);
+        }
+
+        // Remaining depth condition, the leaf value depends on the depth limit
+        if (depth == 0) {
+            depthLimitHits++;
+            return evaluate(state, false);
+        }
+
+        // Transposition table lookup, as in Searcher
+        long key = state.getHash();
+        int hashMove = (ply == 0) ? pvMove : 0;
+        long entry = tt.probe(key);
+        if (entry != 0 && TranspositionTable.getMove(entry) != 0) {
+            hashMove = TranspositionTable.getMove(entry);
+            int ttScore = TranspositionTable.getScore(entry);
+            int ttBound = TranspositionTable.getBound(entry);
+            int ttDepth = TranspositionTable.getDepth(entry);
+            if (ply > 0 && ttDepth >= depth
+                    && (ttBound == TranspositionTable.EXACT
+                    || (ttBound == TranspositionTable.LOWER && ttScore >= beta)
+                    || (ttBound == TranspositionTable.UPPER && ttScore <= alpha))) {
+                ttCutoffs++;
+                if (ttDepth != TranspositionTable.DEPTH_SOLVED) {
+                    depthLimitHits++;
+                }
+                return ttScore;
+            }
+        }
+        int alphaOrig = alpha;
+        long hitsBefore = depthLimitHits;
+        int toMove = state.getNextPlayer();
+
+        int best = Integer.MIN_VALUE;
+        int bestFirstMove = 0;
+
+        // Whole turns, best first
+        int count = generator.generate(state, undo, ply, hashMove);
+        turns += count;
+        int[] order = generator.getOrder(ply);
+        int[] moves = generator.getMoves(ply);
+        int[] starts = generator.getStarts(ply);
+        for (int n = 0; n < count; n++) {
+            int t = order[n];
+            int start = starts[t];
+            int end = starts[t + 1];
+
+            for (int i = start; i < end; i++) {
+                state.makeMove(moves[i], undo);
+            }
+            // The game may end within a turn, with either player to move
+            int score = (state.getNextPlayer() == toMove)
+                    ? negamax(state, depth - 1, ply + 1, alpha, beta)
+                    : -negamax(state, depth - 1, ply + 1, -beta, -alpha);
+            for (int i = start; i < end; i++) {
+                state.unmakeMove(undo);
+            }
+
+            if (aborted) {
+                return ABORTED;
+            }
+
+            if (score > best) {
+                best = score;
+                bestFirstMove = moves[start];
+                if (ply == 0) {
+                    setBestTurn(moves, start, end - start);
+                }
+                if (score > alpha) {
+                    alpha = score;
+                }
+                if (score >= beta) {
+                    break;
+                }
+            }
+        }
+
+        int bound = TranspositionTable.EXACT;
+        if (best <= alphaOrig) {
+            bound = TranspositionTable.UPPER;
+        } else if (best >= beta) {
+            bound = TranspositionTable.LOWER;
+        }
+        int storeDepth = (depthLimitHits == hitsBefore) ? TranspositionTable.DEPTH_SOLVED : depth;
+        tt.store(key, storeDepth, bound, best, bestFirstMove);
+        return best;
+    }
+
+    /**
+     * Copies the best turn at the root.
+     *
+     * @param moves Move buffer
+     * @param start Offset of the turn
+     * @param len Number of moves in the turn
+     */
+    private void setBestTurn(int[] moves, int start, int len)
+    {
+        if (bestTurn.length < len) {
+            bestTurn = new int[Math.max(len, bestTurn.length * 2)];
+        }
+        System.arraycopy(moves, start, bestTurn, 0, len);
+        bestTurnLength = len;
+    }
+
+    /**
+     * Evaluates a position at the depth limit or at the end of the game.
+     * Lost games are biased away from, as in {@link Searcher}.
+     *
+     * @param state Game state
+     * @param ended True if the game has ended
+     * @return Score for the player to move
+     */
+    private int evaluate(GameState state, boolean ended)
+    {
+        int score = AIClient.SCORE_DIFF_EVAL
+                ? state.getScore(player) - state.getScore(3 - player)
+                : state.getScore(player);
+        if (ended && score < 0) {
+            score -= AIClient.LOSS_BIAS;
+        }
+        return (state.getNextPlayer() == player) ? score : -score;
+    }
+
+    /**
+     * Returns the first move of the best turn of the last search.
+     *
+     * @return Best move (1-6), or 0 if the root had no moves
+     */
+    public int getBestMove()
+    {
+        return (bestTurnLength > 0) ? bestTurn[0] : 0;
+    }
+
+    /**
+     * Copies the best turn of the last search: the best move followed by
+     * the extra moves planned after it.
+     *
+     * @param dst Destination for the moves
+     * @return Number of moves copied
+     */
+    public int getBestTurn(int[] dst)
+    {
+        int len = Math.min(bestTurnLength, dst.length);
+        System.arraycopy(bestTurn, 0, dst, 0, len);
+        return len;
+    }
+
+    /**
+     * Returns the number of moves in the best turn of the last search.
+     *
+     * @return Turn length, 0 if the root had no moves
+     */
+    public int getBestTurnLength()
+    {
+        return bestTurnLength;
+    }
+
+    /**
+     * Checks if the last search was aborted by the deadline.
+     *
+     * @return True if aborted
+     */
+    public boolean isAborted()
+    {
+        return aborted;
+    }
+
+    /**
+     * Checks if the last search reached the end of the game on every line.
+     *
+     * @return True if no line was cut off by the depth limit
+     */
+    public boolean isSolved()
+    {
+        return !aborted && depthLimitHits == 0;
+    }
+
+    /**
+     * Returns the number of nodes (positions at the start of a turn) since the last {@link #newSearch}.
+     *
+     * @return Node count
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of turns generated since the last {@link #newSearch}.
+     *
+     * @return Turn count
+     */
+    public long getTurns()
+    {
+        return turns;
+    }
+
+    /**
+     * Returns the number of move sequences skipped as transpositions of
+     * other sequences within a turn, since the last {@link #newSearch}.
+     *
+     * @return Transposition count
+     */
+    public long getTranspositions()
+    {
+        return generator.getTranspositions();
+    }
+
+    /**
+     * Returns the number of transposition table cutoffs since the last {@link #newSearch}.
+     *
+     * @return Cutoff count
+     */
+    public long getTtCutoffs()
+    {
+        return ttCutoffs;
+    }
+
+    /**
+     * Returns the transposition table.
+     *
+     * @return Transposition table
+     */
+    public TranspositionTable getTranspositionTable()
+    {
+        return tt;
+    }
+}
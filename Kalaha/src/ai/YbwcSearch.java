@@ -0,0 +1,639 @@
+package ai;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import kalaha.*;
+
+/**
+ * Young Brothers Wait (YBWC) parallel alpha-beta search on a {@link ForkJoinPool}.
+ * <p>
+ * At each node with enough remaining depth the eldest child (the best move
+ * by move ordering) is searched first. Only when it has not caused a cutoff
+ * does the node become a split point, and the remaining children are spawned
+ * as fork-join tasks that start from the improved bound. When a child fails
+ * high, the split point is cancelled: siblings that have not started are
+ * cancelled and running ones stop before their next child.
+ * <p>
+ * Nodes below {@link #SPLIT_MIN_DEPTH} are searched serially by a
+ * {@link Searcher}, from a fixed set of one searcher per thread of the pool.
+ * All threads share one lock-free transposition table.
+ * Each worker thread orders the moves at split nodes with its own
+ * {@link MoveOrdering}, which keeps its killers and history between nodes.
+ */
+public class YbwcSearch
+{
+    /**
+     * Minimum remaining depth for a node to become a split point.
+     */
+    static final int SPLIT_MIN_DEPTH = 6;
+
+    private final int threads;
+    private final TranspositionTable tt;
+    private final ForkJoinPool pool;
+
+    // Serial searchers not in use by a task, one per thread
+    private final BlockingQueue<Searcher> idle;
+    private final Searcher[] searchers;
+
+    // Move ordering of each worker thread for split nodes, and all of them for newSearch()
+    private final ConcurrentLinkedQueue<MoveOrdering> orderings = new ConcurrentLinkedQueue<MoveOrdering>();
+    private final ThreadLocal<MoveOrdering> ordering = new ThreadLocal<MoveOrdering>() {
+        @Override
+        protected MoveOrdering initialValue() {
+            MoveOrdering o = new MoveOrdering(64);
+            orderings.add(o);
+            return o;
+        }
+    };
+
+    private int pvMove;
+    private Tablebase tablebase;
+
+    // Result of the last search
+    private volatile boolean aborted;
+    private volatile boolean solved;
+    private volatile int bestMove;
+
+    // Statistics, reset by newSearch()
+    private final AtomicLong splitPoints = new AtomicLong();
+    private final AtomicLong aborts = new AtomicLong();
+    private final AtomicLong nodes = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private long wallNanos;
+
+    /**
+     * A node whose younger children are searched in parallel.
+     */
+    private static class SplitPoint
+    {
+        final SplitPoint parent;
+        final int beta;
+        int alpha;
+        int best;
+        int bestMove;
+        boolean complete = true;
+        volatile boolean cancelled;
+
+        SplitPoint(SplitPoint parent, int alpha, int beta, int best, int bestMove)
+        {
+            this.parent = parent;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.best = best;
+            this.bestMove = bestMove;
+        }
+
+        /**
+         * Checks if this split point or one above it was cancelled.
+         */
+        boolean isCancelled()
+        {
+            for (SplitPoint sp = this; sp != null; sp = sp.parent) {
+                if (sp.cancelled) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized int getAlpha()
+        {
+            return alpha;
+        }
+
+        /**
+         * Records the score of a child. Ignored once the split point is cancelled.
+         *
+         * @return True if the child failed high and cancelled the split point
+         */
+        synchronized boolean update(int score, int move, boolean childComplete)
+        {
+            if (cancelled) {
+                return false;
+            }
+            complete &= childComplete;
+            if (score >= beta) {
+                cancelled = true;
+            }
+            if (score > best) {
+                best = score;
+                bestMove = move;
+                if (score > alpha) {
+                    alpha = score;
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Creates a new YBWC search.
+     *
+     * @param player The player the AI plays as (1 or 2)
+     * @param threads Number of threads
+     * @param tt Transposition table shared by all threads
+     */
+    public YbwcSearch(int player, int threads, TranspositionTable tt)
+    {
+        this.threads = Math.max(1, threads);
+        this.tt = tt;
+        pool = new ForkJoinPool(this.threads);
+        searchers = new Searcher[pool.getParallelism()];
+        idle = new ArrayBlockingQueue<Searcher>(searchers.length);
+        for (int i = 0; i < searchers.length; i++) {
+            searchers[i] = new Searcher(player, tt);
+            idle.add(searchers[i]);
+        }
+    }
+
+    /**
+     * Starts a new search (a new move in the game).
+     *
+     * @param deadline Time (System.currentTimeMillis()) at which the search is aborted
+     */
+    public void newSearch(long deadline)
+    {
+        pvMove = 0;
+        for (Searcher s : searchers) {
+            s.newSearch(deadline);
+        }
+        for (MoveOrdering o : orderings) {
+            o.newSearch();
+        }
+        splitPoints.set(0);
+        aborts.set(0);
+        nodes.set(0);
+        busyNanos.set(0);
+        wallNanos = 0;
+    }
+
+    /**
+     * Sets the root move searched first, normally the best move of the
+     * previous IDDFS iteration.
+     *
+     * @param move Move (1-6), or 0 for none
+     */
+    public void setPvMove(int move)
+    {
+        pvMove = move;
+    }
+
+    /**
+     * Enables the quiescence search in the serial searches below the split points.
+     *
+     * @param quiescence True for quiescence search, false to evaluate at the depth limit
+     * @see Searcher#setQuiescence(boolean)
+     */
+    public void setQuiescence(boolean quiescence)
+    {
+        for (Searcher s : searchers) {
+            s.setQuiescence(quiescence);
+        }
+    }
+
+    /**
+     * Sets the endgame tablebase, probed at split nodes and in the serial searches.
+     *
+     * @param tablebase Tablebase, or null for none
+     * @see Searcher#setTablebase(Tablebase)
+     */
+    public void setTablebase(Tablebase tablebase)
+    {
+        this.tablebase = tablebase;
+        for (Searcher s : searchers) {
+            s.setTablebase(tablebase);
+        }
+    }
+
+    /**
+     * Searches a position to a fixed depth. The game state is left unchanged.
+     *
+     * @param state Game state
+     * @param depth Search depth in plies
+     * @param alpha Lower bound of the search window
+     * @param beta Upper bound of the search window
+     * @return Score for the player to move, not valid if {@link #isAborted()}
+     */
+    public int search(GameState state, int depth, int alpha, int beta)
+    {
+        aborted = false;
+        solved = false;
+        bestMove = 0;
+        long t = System.nanoTime();
+        int score = pool.invoke(new NodeTask(null, state.clone(), depth, 0, alpha, beta));
+        wallNanos += System.nanoTime() - t;
+        return score;
+    }
+
+    /**
+     * Searches one node. Returns the score for the player to move.
+     */
+    private class NodeTask extends RecursiveTask<Integer>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final SplitPoint parent;
+        private final GameState state;
+        private final int depth;
+        private final int ply;
+        private final int alpha;
+        private final int beta;
+        private final boolean root;
+
+        // True if the player to move changed from the parent node
+        private boolean negate;
+
+        // True if every line below this node was searched to the end of the game
+        private boolean complete;
+
+        NodeTask(SplitPoint parent, GameState state, int depth, int ply, int alpha, int beta)
+        {
+            this.parent = parent;
+            this.state = state;
+            this.depth = depth;
+            this.ply = ply;
+            this.alpha = alpha;
+            this.beta = beta;
+            root = (ply == 0);
+        }
+
+        @Override
+        protected Integer compute() {
+            if (state.gameEnded()) {
+                return serial();
+            }
+
+            // Exact value from the tablebase, except at the root where a move must be
+            // chosen. The serial searches start at their own root, so probe here.
+            if (!root && tablebase != null
+                    && state.getSideSeeds(1) + state.getSideSeeds(2) <= tablebase.getMaxSeeds()) {
+                nodes.incrementAndGet();
+                complete = true;
+                Searcher s = acquire();
+                if (s == null) {
+                    return Searcher.ABORTED;
+                }
+                try {
+                    return s.probeTablebase(state);
+                } finally {
+                    idle.add(s);
+                }
+            }
+
+            if (depth < SPLIT_MIN_DEPTH) {
+                return serial();
+            }
+            nodes.incrementAndGet();
+
+            // Hash move from the shared table, the table is also used for cutoffs,
+            // as in the serial search
+            long key = state.getHash();
+            long entry = tt.probe(key);
+            int hashMove = root ? pvMove : 0;
+            if (entry != 0 && TranspositionTable.getMove(entry) != 0) {
+                hashMove = TranspositionTable.getMove(entry);
+                int ttScore = TranspositionTable.getScore(entry);
+                int ttBound = TranspositionTable.getBound(entry);
+                int ttDepth = TranspositionTable.getDepth(entry);
+                if (ttDepth >= depth
+                        && (ttBound == TranspositionTable.EXACT
+                        || (ttBound == TranspositionTable.LOWER && ttScore >= beta)
+                        || (ttBound == TranspositionTable.UPPER && ttScore <= alpha))) {
+                    complete = (ttDepth == TranspositionTable.DEPTH_SOLVED);
+                    if (root) {
+                        bestMove = hashMove;
+                        solved = complete;
+                    }
+                    return ttScore;
+                }
+            }
+
+            MoveOrdering o = ordering.get();
+            o.ensureCapacity(ply + 1);
+            int moveCount = o.order(state, ply, hashMove);
+            int[] moves = o.getMoves(ply);
+
+            // This thread may order other nodes at the same ply while it waits
+            // for the eldest brother, so keep the younger moves, 3 bits each
+            int eldestMove = moves[0];
+            int younger = 0;
+            for (int n = moveCount - 1; n > 0; n--) {
+                younger = (younger << 3) | moves[n];
+            }
+
+            // Eldest brother first, in this thread
+            NodeTask eldest = child(parent, eldestMove, alpha, beta);
+            int score = eldest.value();
+            if (isStale()) {
+                return Searcher.ABORTED;
+            }
+            complete = eldest.complete;
+            if (score >= beta || moveCount == 1) {
+                if (score >= beta) {
+                    o.cutoff(state, ply, eldestMove, depth, 0);
+                }
+                return store(key, score, eldestMove);
+            }
+
+            // Split point: the younger brothers run in parallel with the improved bound
+            SplitPoint sp = new SplitPoint(parent, Math.max(alpha, score), beta, score, eldestMove);
+            splitPoints.incrementAndGet();
+            BrotherTask[] brothers = new BrotherTask[moveCount - 1];
+            for (int n = 0; n < brothers.length; n++) {
+                brothers[n] = new BrotherTask(sp, brothers, younger & 7);
+                younger >>>= 3;
+            }
+            for (int n = brothers.length - 1; n > 0; n--) {
+                brothers[n].fork();
+            }
+            for (int n = 0; n < brothers.length; n++) {
+                try {
+                    if (n == 0) {
+                        brothers[n].invoke();
+                    } else {
+                        brothers[n].join();
+                    }
+                } catch (CancellationException ex) {
+                    // Not started before a brother failed high
+                }
+            }
+            if (isStale()) {
+                return Searcher.ABORTED;
+            }
+            synchronized (sp) {
+                complete &= sp.complete;
+                if (sp.best >= beta) {
+                    o.cutoff(state, ply, sp.bestMove, depth, 1);
+                }
+                return store(key, sp.best, sp.bestMove);
+            }
+        }
+
+        /**
+         * Checks if the result of this node is not usable, because time ran
+         * out or a split point above it was cancelled.
+         */
+        boolean isStale()
+        {
+            return aborted || (parent != null && parent.isCancelled());
+        }
+
+        /**
+         * Searches a child of this node.
+         *
+         * @param sp Split point the child belongs to
+         * @param move The move leading to the child
+         * @param a Lower bound of the window, for the player to move here
+         * @param b Upper bound of the window, for the player to move here
+         * @return The finished child task
+         */
+        NodeTask child(SplitPoint sp, int move, int a, int b)
+        {
+            // The state of this node is only read, each child works on a copy
+            int toMove = state.getNextPlayer();
+            GameState c = state.clone();
+            c.makeMove(move);
+            NodeTask t;
+            if (c.getNextPlayer() == toMove) {
+                t = new NodeTask(sp, c, depth - 1, ply + 1, a, b);
+            } else {
+                t = new NodeTask(sp, c, depth - 1, ply + 1, -b, -a);
+                t.negate = true;
+            }
+            t.invoke();
+            return t;
+        }
+
+        /**
+         * Returns the score of this finished node for the player to move at its parent.
+         *
+         * @return Score
+         */
+        int value()
+        {
+            int score = getRawResult();
+            return negate ? -score : score;
+        }
+
+        /**
+         * Stores the result of this node in the transposition table.
+         *
+         * @param key Position key
+         * @param score Score of the node
+         * @param move Best move
+         * @return The score
+         */
+        int store(long key, int score, int move)
+        {
+            int bound = TranspositionTable.EXACT;
+            if (score <= alpha) {
+                bound = TranspositionTable.UPPER;
+            } else if (score >= beta) {
+                bound = TranspositionTable.LOWER;
+            }
+            tt.store(key, complete ? TranspositionTable.DEPTH_SOLVED : depth, bound, score, move);
+            if (root) {
+                bestMove = move;
+                solved = complete;
+            }
+            return score;
+        }
+
+        /**
+         * Searches this node serially.
+         *
+         * @return Score for the player to move
+         */
+        int serial()
+        {
+            Searcher s = acquire();
+            if (s == null) {
+                return Searcher.ABORTED;
+            }
+            long t = System.nanoTime();
+            try {
+                long before = s.getNodes();
+                int score = s.search(state, depth, alpha, beta);
+                nodes.addAndGet(s.getNodes() - before);
+                if (s.isAborted()) {
+                    aborted = true;
+                }
+                complete = s.isSolved();
+                if (root) {
+                    bestMove = s.getBestMove();
+                    solved = complete;
+                }
+                return score;
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - t);
+                idle.add(s);
+            }
+        }
+
+        /**
+         * Takes a serial searcher that is not in use. It must be returned
+         * to the idle queue after use.
+         *
+         * @return Searcher, or null if interrupted while waiting (the search is aborted)
+         */
+        Searcher acquire()
+        {
+            // Waits only when the pool has added a thread for a blocked join,
+            // the searchers in use are released by serial searches that do not wait
+            try {
+                return idle.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                aborted = true;
+                return null;
+            }
+        }
+
+        /**
+         * Searches a younger brother at a split point.
+         */
+        private class BrotherTask extends RecursiveTask<Integer>
+        {
+            private static final long serialVersionUID = 1L;
+
+            private final SplitPoint sp;
+            private final BrotherTask[] brothers;
+            private final int move;
+
+            BrotherTask(SplitPoint sp, BrotherTask[] brothers, int move)
+            {
+                this.sp = sp;
+                this.brothers = brothers;
+                this.move = move;
+            }
+
+            @Override
+            protected Integer compute() {
+                if (aborted || sp.isCancelled()) {
+                    return Searcher.ABORTED;
+                }
+                NodeTask t = child(sp, move, sp.getAlpha(), sp.beta);
+                int score = t.value();
+                if (aborted) {
+                    return Searcher.ABORTED;
+                }
+                if (sp.update(score, move, t.complete)) {
+                    // Beta cutoff, the other brothers are not needed
+                    aborts.incrementAndGet();
+                    for (BrotherTask b : brothers) {
+                        if (b != this) {
+                            b.cancel(false);
+                        }
+                    }
+                }
+                return score;
+            }
+        }
+    }
+
+    /**
+     * Returns the best root move of the last search.
+     *
+     * @return Best move (1-6)
+     */
+    public int getBestMove()
+    {
+        return bestMove;
+    }
+
+    /**
+     * Checks if the last search ran out of time.
+     *
+     * @return True if the deadline was reached
+     */
+    public boolean isAborted()
+    {
+        return aborted;
+    }
+
+    /**
+     * Checks if the last search reached the end of the game on every line.
+     *
+     * @return True if no line was cut off by the depth limit
+     */
+    public boolean isSolved()
+    {
+        return !aborted && solved;
+    }
+
+    /**
+     * Returns the number of split points since the last {@link #newSearch}.
+     *
+     * @return Split point count
+     */
+    public long getSplitPoints()
+    {
+        return splitPoints.get();
+    }
+
+    /**
+     * Returns the number of split points cancelled by a beta cutoff since
+     * the last {@link #newSearch}.
+     *
+     * @return Abort count
+     */
+    public long getAborts()
+    {
+        return aborts.get();
+    }
+
+    /**
+     * Returns the number of nodes visited since the last {@link #newSearch}.
+     *
+     * @return Node count
+     */
+    public long getNodes()
+    {
+        return nodes.get();
+    }
+
+    /**
+     * Returns the thread time not spent searching since the last
+     * {@link #newSearch}: the wall time of all threads minus the time
+     * spent in serial searches.
+     *
+     * @return Idle time in nanoseconds
+     */
+    public long getIdleNanos()
+    {
+        return Math.max(0, threads * wallNanos - busyNanos.get());
+    }
+
+    /**
+     * Returns the total wall time of the searches since the last {@link #newSearch}.
+     *
+     * @return Wall time in nanoseconds
+     */
+    public long getWallNanos()
+    {
+        return wallNanos;
+    }
+
+    /**
+     * Returns the number of threads.
+     *
+     * @return Thread count
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+}
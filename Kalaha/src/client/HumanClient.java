@@ -22,6 +22,7 @@ public class HumanClient implements Runnable, ActionListener
     private JLabel[] labels_S;
     private JLabel house_N;
     private JLabel house_S;
+    private int[] pits = new int[14];
     
     private PrintWriter out;
     private BufferedReader in;
@@ -225,24 +226,24 @@ public class HumanClient implements Runnable, ActionListener
      */
     public void updateBoard(String board) 
     {
-        String[] tokens = board.split(";");
+        BoardCodec.parse(board, pits);
         
         //House_S
-        house_S.setText(tokens[GameState.HOUSE_S]);
+        house_S.setText(Integer.toString(pits[GameState.HOUSE_S]));
 
         //South player ambos
         for (int i = GameState.START_S; i <= GameState.END_S; i++) 
         {
-            labels_S[i - GameState.START_S].setText(tokens[i]);
+            labels_S[i - GameState.START_S].setText(Integer.toString(pits[i]));
         }
 
         //House_N
-        house_N.setText(tokens[GameState.HOUSE_N]);
+        house_N.setText(Integer.toString(pits[GameState.HOUSE_N]));
         
         //North player ambos
         for (int i = GameState.START_N; i <= GameState.END_N; i++) 
         {
-            labels_N[i - GameState.START_N].setText(tokens[i]);
+            labels_N[i - GameState.START_N].setText(Integer.toString(pits[i]));
         }
     }
     
@@ -0,0 +1,253 @@
+package kalaha;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes the board string format sent between the game server
+ * and the clients: the 14 pits followed by the next player, separated by
+ * semicolons (e.g. "0;6;6;6;6;6;6;0;6;6;6;6;6;6;1").
+ * <p>
+ * Parsing and writing work directly on caller-supplied buffers, so a
+ * client or the server can handle every board without creating
+ * intermediate strings or arrays.
+ */
+public final class BoardCodec
+{
+    /**
+     * Number of values (14 pits and the next player) in a board string.
+     */
+    public static final int VALUES = 15;
+
+    /**
+     * Upper bound on the length of a board string, enough for
+     * three-digit pits.
+     */
+    public static final int MAX_LENGTH = VALUES * 4;
+
+    /**
+     * Largest number of seeds accepted in one pit, the most a pit of a
+     * {@link PackedBoard} can hold.
+     */
+    public static final int MAX_SEEDS = (int)PackedBoard.PIT_MASK;
+
+    private BoardCodec()
+    {
+
+    }
+
+    /**
+     * Parses a board string.
+     *
+     * @param src Board string representation
+     * @param board Destination board array (14 pits)
+     * @return Next player to make a move
+     * @throws IllegalArgumentException If the board string is malformed, a pit
+     * holds more than {@link #MAX_SEEDS} seeds or the next player is not 1 or 2
+     */
+    public static int parse(CharSequence src, int[] board)
+    {
+        int len = src.length();
+        int pos = 0;
+        int value = 0;
+        for (int v = 0; v < VALUES; v++)
+        {
+            value = 0;
+            int start = pos;
+            while (pos < len)
+            {
+                char c = src.charAt(pos);
+                if (c == ';') break;
+                if (c < '0' || c > '9')
+                {
+                    throw new IllegalArgumentException("Invalid character '" + c + "' in board string at " + pos);
+                }
+                value = value * 10 + (c - '0');
+                if (value > MAX_SEEDS)
+                {
+                    throw new IllegalArgumentException("Value " + v + " in board string is too large");
+                }
+                pos++;
+            }
+            if (pos == start)
+            {
+                throw new IllegalArgumentException("Missing value " + v + " in board string");
+            }
+            if (v < 14) board[v] = value;
+            pos++;
+        }
+        return checkPlayer(value);
+    }
+
+    /**
+     * Parses a board string from ASCII bytes. Reading starts at the
+     * buffer's position and stops after the next player value, leaving
+     * the position just after it.
+     *
+     * @param src Buffer holding the board string
+     * @param board Destination board array (14 pits)
+     * @return Next player to make a move
+     * @throws IllegalArgumentException If the board string is malformed, a pit
+     * holds more than {@link #MAX_SEEDS} seeds or the next player is not 1 or 2
+     */
+    public static int parse(ByteBuffer src, int[] board)
+    {
+        int value = 0;
+        for (int v = 0; v < VALUES; v++)
+        {
+            if (v > 0)
+            {
+                if (!src.hasRemaining() || src.get() != ';')
+                {
+                    throw new IllegalArgumentException("Missing separator before value " + v + " in board string");
+                }
+            }
+            value = 0;
+            int digits = 0;
+            while (src.hasRemaining())
+            {
+                byte c = src.get(src.position());
+                if (c < '0' || c > '9') break;
+                value = value * 10 + (c - '0');
+                if (value > MAX_SEEDS)
+                {
+                    throw new IllegalArgumentException("Value " + v + " in board string is too large");
+                }
+                src.position(src.position() + 1);
+                digits++;
+            }
+            if (digits == 0)
+            {
+                throw new IllegalArgumentException("Missing value " + v + " in board string");
+            }
+            if (v < 14) board[v] = value;
+        }
+        return checkPlayer(value);
+    }
+
+    /**
+     * Checks the next player value of a board string.
+     *
+     * @param player Parsed next player
+     * @return The next player
+     * @throws IllegalArgumentException If the player is not 1 or 2
+     */
+    private static int checkPlayer(int player)
+    {
+        if (player != 1 && player != 2)
+        {
+            throw new IllegalArgumentException("Invalid next player " + player + " in board string");
+        }
+        return player;
+    }
+
+    /**
+     * Writes a board string to a char array.
+     *
+     * @param board Board array (14 pits)
+     * @param nextPlayer Next player to make a move
+     * @param dst Destination array, at least {@link #MAX_LENGTH} chars after off
+     * @param off Offset to start writing at
+     * @return Offset just after the written board string
+     */
+    public static int write(int[] board, int nextPlayer, char[] dst, int off)
+    {
+        for (int i = 0; i < 14; i++)
+        {
+            off = writeInt(board[i], dst, off);
+            dst[off++] = ';';
+        }
+        return writeInt(nextPlayer, dst, off);
+    }
+
+    /**
+     * Appends a board string to a string builder.
+     *
+     * @param board Board array (14 pits)
+     * @param nextPlayer Next player to make a move
+     * @param dst Destination string builder
+     * @return The destination string builder
+     */
+    public static StringBuilder write(int[] board, int nextPlayer, StringBuilder dst)
+    {
+        for (int i = 0; i < 14; i++)
+        {
+            dst.append(board[i]).append(';');
+        }
+        return dst.append(nextPlayer);
+    }
+
+    /**
+     * Writes a board string as ASCII bytes at the buffer's position.
+     *
+     * @param board Board array (14 pits)
+     * @param nextPlayer Next player to make a move
+     * @param dst Destination buffer
+     */
+    public static void write(int[] board, int nextPlayer, ByteBuffer dst)
+    {
+        for (int i = 0; i < 14; i++)
+        {
+            writeInt(board[i], dst);
+            dst.put((byte)';');
+        }
+        writeInt(nextPlayer, dst);
+    }
+
+    /**
+     * Writes a non-negative integer as decimal digits to a char array.
+     *
+     * @param value Value to write
+     * @param dst Destination array
+     * @param off Offset to start writing at
+     * @return Offset just after the written digits
+     */
+    private static int writeInt(int value, char[] dst, int off)
+    {
+        int end = off + digits(value);
+        int i = end;
+        do
+        {
+            dst[--i] = (char)('0' + value % 10);
+            value /= 10;
+        }
+        while (value > 0);
+        return end;
+    }
+
+    /**
+     * Writes a non-negative integer as ASCII decimal digits to a buffer.
+     *
+     * @param value Value to write
+     * @param dst Destination buffer
+     */
+    private static void writeInt(int value, ByteBuffer dst)
+    {
+        int div = 1;
+        for (int d = digits(value); d > 1; d--)
+        {
+            div *= 10;
+        }
+        while (div > 0)
+        {
+            dst.put((byte)('0' + (value / div) % 10));
+            div /= 10;
+        }
+    }
+
+    /**
+     * Returns the number of decimal digits in a non-negative integer.
+     *
+     * @param value The value
+     * @return Number of digits
+     */
+    private static int digits(int value)
+    {
+        int d = 1;
+        while (value >= 10)
+        {
+            value /= 10;
+            d++;
+        }
+        return d;
+    }
+}
@@ -1,5 +1,7 @@
 package kalaha;
 
+import java.nio.ByteBuffer;
+
 /**
  * Represents a game state in the Kalaha board game.
  * 
@@ -42,12 +44,118 @@ public class GameState
      */
     public static final int NEXT_PLAYER = 14;
     
+    //House index per player (1-2)
+    private static final int[] HOUSE = {-1, HOUSE_S, HOUSE_N};
+    
+    //Side owning each ambo: 1 for south, 2 for north, 0 for the houses
+    private static final int[] PIT_SIDE = new int[14];
+    
+    //Legal move mask bit for each ambo, 0 for the houses
+    private static final int[] PIT_BIT = new int[14];
+    
+    //Opposite ambo index per pit, -1 for the houses
+    private static final int[] OPPOSITE = new int[14];
+    
+    //True if the pit is one of the player's own ambos, per player (1-2)
+    private static final boolean[][] OWN_AMBO = new boolean[3][14];
+    
+    //The 13 pits each player sows into (all but the opponent's house)
+    private static final int[][] SOW_PITS = new int[3][13];
+    
+    //Pit reached by the k:th seed (1-13) sown from a pit, per player.
+    //Index 13 is the pit itself, since a full lap is 13 pits.
+    private static final int[][][] SOW_PATH = new int[3][14][14];
+    
+    //Inverse of SOW_PATH: the step (1-13) at which a seed sown from a pit
+    //reaches another pit, per player. 0 for the opponent's house.
+    private static final int[][][] SOW_STEP = new int[3][14][14];
+    
+    static
+    {
+        for (int i = 0; i < 14; i++)
+        {
+            OPPOSITE[i] = (i == HOUSE_S || i == HOUSE_N) ? -1 : 14 - i;
+        }
+        
+        for (int p = 1; p <= 2; p++)
+        {
+            int skip = HOUSE[3 - p];
+            int start = (p == 1) ? START_S : START_N;
+            for (int i = start; i < start + 6; i++)
+            {
+                OWN_AMBO[p][i] = true;
+                PIT_SIDE[i] = p;
+                PIT_BIT[i] = 1 << (i - start);
+            }
+            
+            int n = 0;
+            for (int i = 0; i < 14; i++)
+            {
+                if (i != skip) SOW_PITS[p][n++] = i;
+            }
+            
+            for (int i = 0; i < 14; i++)
+            {
+                int c = i;
+                SOW_PATH[p][i][0] = i;
+                for (int k = 1; k < 14; k++)
+                {
+                    c = (c + 1) % 14;
+                    if (c == skip) c = (c + 1) % 14;
+                    SOW_PATH[p][i][k] = c;
+                    SOW_STEP[p][i][c] = k;
+                }
+            }
+        }
+    }
+    
+    //Zobrist keys per pit and number of seeds, and for player 2 to move.
+    //Generated from a fixed seed so hashes can be stored in files.
+    private static final long[][] ZOBRIST = new long[14][128];
+    private static final long ZOBRIST_PLAYER;
+    
+    static
+    {
+        //SplitMix64
+        long x = 0x4B414C414841L;
+        for (int i = 0; i < 14; i++)
+        {
+            for (int n = 0; n < 128; n++)
+            {
+                x += 0x9E3779B97F4A7C15L;
+                long z = x;
+                z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+                z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+                ZOBRIST[i][n] = z ^ (z >>> 31);
+            }
+        }
+        x += 0x9E3779B97F4A7C15L;
+        long z = x;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        ZOBRIST_PLAYER = z ^ (z >>> 31);
+    }
+    
     //Board representation
     private int[] board;
     
     //Next player to make a move
     private int nextPlayer = 1;
     
+    //Zobrist hash of board and next player
+    private long hash;
+    
+    //Total number of seeds in south's and north's ambos
+    private int seedsS;
+    private int seedsN;
+    
+    //Non-empty ambos for south and north, bit 0 is ambo 1
+    private int maskS;
+    private int maskN;
+    
+    //True if one side is out of seeds
+    private boolean ended;
+    
     /**
      * Creates a start game state for a new Kalaha
      * game.
@@ -55,6 +163,7 @@ public class GameState
     public GameState()
     {
         createBoard(6);
+        recompute();
     }
     
     /**
@@ -67,6 +176,22 @@ public class GameState
     {
         this.board = board;
         this.nextPlayer = nextPlayer;
+        recompute();
+    }
+    
+    /**
+     * Creates a game state from a packed board representation.
+     * 
+     * @param lo Low word of the packed board
+     * @param hi High word of the packed board
+     * @see PackedBoard
+     */
+    public GameState(long lo, long hi)
+    {
+        board = new int[14];
+        PackedBoard.unpack(lo, hi, board);
+        nextPlayer = PackedBoard.getNextPlayer(hi);
+        recompute();
     }
     
     /**
@@ -80,28 +205,7 @@ public class GameState
         try
         {
             board = new int[14];
-            String[] tokens = boardStr.split(";");
-        
-            //House_S
-            board[HOUSE_S] = Integer.parseInt(tokens[HOUSE_S]);
-
-            //South (1) player ambos
-            for (int i = START_S; i <= END_S; i++) 
-            {
-                board[i] = Integer.parseInt(tokens[i]);	
-            }
-
-            //House_N
-            board[HOUSE_N] = Integer.parseInt(tokens[HOUSE_N]);
-
-            //North (2) player ambos
-            for (int i = START_N; i <= END_N; i++) 
-            {
-               board[i] = Integer.parseInt(tokens[i]);
-            }
-        
-            //Player to move
-            nextPlayer = Integer.parseInt(tokens[NEXT_PLAYER]);
+            nextPlayer = BoardCodec.parse(boardStr, board);
         }
         catch (Exception ex)
         {
@@ -109,6 +213,38 @@ public class GameState
             ex.printStackTrace();
             createBoard(6);
         }
+        recompute();
+    }
+    
+    /**
+     * Replaces this game state with one parsed from a string board
+     * representation, without creating any new objects. Lets a client
+     * reuse one GameState for every board received from the server.
+     * 
+     * @param boardStr Board string representation
+     * @throws IllegalArgumentException If the board string is malformed or out
+     * of range (see {@link BoardCodec#parse(CharSequence, int[])}).
+     * The game state is undefined afterwards.
+     */
+    public void parse(CharSequence boardStr)
+    {
+        nextPlayer = BoardCodec.parse(boardStr, board);
+        recompute();
+    }
+    
+    /**
+     * Replaces this game state with one parsed from an ASCII
+     * board representation, starting at the buffer's position.
+     * 
+     * @param src Buffer holding the board string
+     * @throws IllegalArgumentException If the board string is malformed or out
+     * of range (see {@link BoardCodec#parse(ByteBuffer, int[])}).
+     * The game state is undefined afterwards.
+     */
+    public void parse(ByteBuffer src)
+    {
+        nextPlayer = BoardCodec.parse(src, board);
+        recompute();
     }
     
     /**
@@ -128,6 +264,28 @@ public class GameState
         return new GameState(n_board, nextPlayer);
     }
     
+    /**
+     * Returns the low word of the packed board representation.
+     * 
+     * @return Low word (pits 0-8)
+     * @see PackedBoard
+     */
+    public long getPackedLow()
+    {
+        return PackedBoard.packLow(board);
+    }
+    
+    /**
+     * Returns the high word of the packed board representation.
+     * 
+     * @return High word (pits 9-13 and next player)
+     * @see PackedBoard
+     */
+    public long getPackedHigh()
+    {
+        return PackedBoard.packHigh(board, nextPlayer);
+    }
+    
     /**
      * Creates a new Kalaha start game state with the specified
      * number of seeds.
@@ -158,6 +316,20 @@ public class GameState
      * @return True if the move was successful, false if not.
      */
     public boolean makeMove(int ambo)
+    {
+        return makeMove(ambo, null);
+    }
+    
+    /**
+     * Makes a move in the current Kalaha game state and records
+     * what is needed to take it back with {@link #unmakeMove(UndoStack)}.
+     * 
+     * @param ambo The move to make (1-6)
+     * @param undo Undo stack to push the move on, or null to not record it
+     * @return True if the move was successful, false if not. Nothing is
+     * pushed for an unsuccessful move.
+     */
+    public boolean makeMove(int ambo, UndoStack undo)
     {
         //Internal ambo number of 0-5
         ambo--;
@@ -179,105 +351,205 @@ public class GameState
             return false;
         }
         
+        //Record the move for undo
+        int rec = -1;
+        if (undo != null)
+        {
+            rec = undo.push();
+            undo.data[rec + UndoStack.PIT] = cMoveI;
+            undo.data[rec + UndoStack.SEEDS] = board[cMoveI];
+            undo.data[rec + UndoStack.PLAYER] = nextPlayer;
+            undo.data[rec + UndoStack.CAPTURE_PIT] = -1;
+            undo.data[rec + UndoStack.SWEPT_SIDE] = 0;
+            undo.hashes[rec / UndoStack.STRIDE] = hash;
+            undo.data[rec + UndoStack.SEEDS_S] = seedsS;
+            undo.data[rec + UndoStack.SEEDS_N] = seedsN;
+            undo.data[rec + UndoStack.MASKS] = maskS | (maskN << 6);
+        }
+        
         //Pickup seeds
         int seeds = board[cMoveI];
-        board[cMoveI] = 0;
-        boolean lastIsHouse = false;
+        setPit(cMoveI, 0);
         
-        //Sow seeds
-        while (seeds > 0)
+        //Sow full laps, every pit we sow into gets the same number of seeds
+        int laps = seeds / 13;
+        int rest = seeds - laps * 13;
+        if (laps > 0)
         {
-            //Take a step
-            cMoveI++;
-            if (cMoveI >= 14) cMoveI = 0;
-            
-            if ( (nextPlayer == 1 && cMoveI == HOUSE_N) || (nextPlayer == 2 && cMoveI == HOUSE_S) )
+            int[] pits = SOW_PITS[nextPlayer];
+            for (int i = 0; i < 13; i++)
             {
-                //Don't sow in opponents house
+                int pi = pits[i];
+                setPit(pi, board[pi] + laps);
             }
-            else
-            {
-                //Sow a seed
-                board[cMoveI]++;
-                seeds--;
-            }
-            
-            //Check special cases for last seed
-            if (seeds == 0)
+        }
+        
+        //Sow the remaining seeds along the precomputed path
+        int[] path = SOW_PATH[nextPlayer][cMoveI];
+        for (int k = 1; k <= rest; k++)
+        {
+            int pi = path[k];
+            setPit(pi, board[pi] + 1);
+        }
+        int last = path[(rest == 0) ? 13 : rest];
+        
+        //Possible capture of opponent's seeds
+        if (board[last] == 1 && OWN_AMBO[nextPlayer][last])
+        {
+            int oi = OPPOSITE[last];
+            if (board[oi] > 0)
             {
-                //Check for extra move
-                if (nextPlayer == 1 && cMoveI == HOUSE_S) lastIsHouse = true;
-                if (nextPlayer == 2 && cMoveI == HOUSE_N) lastIsHouse = true;
-                
-                //Check capture
-                boolean capture = false;
-                if (board[cMoveI] == 1)
+                if (rec >= 0)
                 {
-                    if (nextPlayer == 1)
-                    {
-                        if (cMoveI >= START_S && cMoveI <= END_S) capture = true;
-                    }
-                    if (nextPlayer == 2)
-                    {
-                        if (cMoveI >= START_N && cMoveI <= END_N) capture = true;
-                    }
-                }
-                
-                //Possible capture of opponent's seeds
-                if (capture)
-                {
-                    int oi = getOppositeAmbo(cMoveI);
-                    if (board[oi] > 0)
-                    {
-                        if (nextPlayer == 1)
-                        {
-                            board[HOUSE_S] += board[cMoveI] + board[oi];
-                        }
-                        else if (nextPlayer == 2)
-                        {
-                            board[HOUSE_N] += board[cMoveI] + board[oi];
-                        }
-                        board[cMoveI] = 0;
-                        board[oi] = 0;
-                    }
+                    undo.data[rec + UndoStack.CAPTURE_PIT] = last;
+                    undo.data[rec + UndoStack.CAPTURED] = board[oi];
                 }
+                int house = HOUSE[nextPlayer];
+                setPit(house, board[house] + board[last] + board[oi]);
+                setPit(last, 0);
+                setPit(oi, 0);
             }
         }
         
-        if (!lastIsHouse)
+        //Extra move if the last seed ended up in own house
+        if (last != HOUSE[nextPlayer])
         {
             toggleNextPlayer();
         }
         
         //Call to update game state in
         //case any player won.
-        gameEnded();
+        sweep(undo, rec);
         
         return true;
     }
     
     /**
-     * Returns the opposite ambo index for a specified ambo.
+     * Applies a sequence of moves to this game state in one call.
+     * Replay stops at the first move that is not possible or not in
+     * the range 1-6.
      * 
-     * @param ambo The ambo
-     * @return Opposite ambo index, or -1 if failed to find the opposite ambo.
+     * @param moves Moves (1-6)
+     * @param off Index of the first move
+     * @param len Number of moves
+     * @param hashes If not null, receives the Zobrist hash after each move, starting at index 0
+     * @param boards If not null, receives the packed board after each move
+     * (low and high word at index 2i and 2i+1)
+     * @return Number of moves applied
      */
-    private int getOppositeAmbo(int ambo)
+    public int replay(int[] moves, int off, int len, long[] hashes, long[] boards)
     {
-        if (ambo == START_S) return END_N;
-        if (ambo == START_S+1) return END_N-1;
-        if (ambo == START_S+2) return END_N-2;
-        if (ambo == START_S+3) return END_N-3;
-        if (ambo == START_S+4) return END_N-4;
-        if (ambo == START_S+5) return END_N-5;
-        if (ambo == START_N) return END_S;
-        if (ambo == START_N+1) return END_S-1;
-        if (ambo == START_N+2) return END_S-2;
-        if (ambo == START_N+3) return END_S-3;
-        if (ambo == START_N+4) return END_S-4;
-        if (ambo == START_N+5) return END_S-5;
-
-        return -1;
+        for (int i = 0; i < len; i++)
+        {
+            int m = moves[off + i];
+            if (m < 1 || m > 6 || !makeMove(m, null)) return i;
+            record(i, hashes, boards);
+        }
+        return len;
+    }
+    
+    /**
+     * Applies a sequence of moves stored one per byte to this game state
+     * in one call. Replay stops at the first move that is not possible
+     * or not in the range 1-6.
+     * 
+     * @param moves Moves (1-6), one per byte
+     * @param off Index of the first move
+     * @param len Number of moves
+     * @param hashes If not null, receives the Zobrist hash after each move, starting at index 0
+     * @param boards If not null, receives the packed board after each move
+     * (low and high word at index 2i and 2i+1)
+     * @return Number of moves applied
+     */
+    public int replay(byte[] moves, int off, int len, long[] hashes, long[] boards)
+    {
+        for (int i = 0; i < len; i++)
+        {
+            int m = moves[off + i];
+            if (m < 1 || m > 6 || !makeMove(m, null)) return i;
+            record(i, hashes, boards);
+        }
+        return len;
+    }
+    
+    /**
+     * Stores the hash and packed board after a replayed move.
+     * 
+     * @param ply Index of the move in the replay
+     * @param hashes Hash destination, or null
+     * @param boards Packed board destination, or null
+     */
+    private void record(int ply, long[] hashes, long[] boards)
+    {
+        if (hashes != null) hashes[ply] = hash;
+        if (boards != null)
+        {
+            boards[2 * ply] = PackedBoard.packLow(board);
+            boards[2 * ply + 1] = PackedBoard.packHigh(board, nextPlayer);
+        }
+    }
+    
+    /**
+     * Takes back the last move pushed on the undo stack, restoring
+     * the exact game state from before the move.
+     * 
+     * @param undo Undo stack the move was recorded on
+     */
+    public void unmakeMove(UndoStack undo)
+    {
+        int rec = undo.pop();
+        int[] data = undo.data;
+        int pit = data[rec + UndoStack.PIT];
+        int seeds = data[rec + UndoStack.SEEDS];
+        nextPlayer = data[rec + UndoStack.PLAYER];
+        
+        //Put back seeds gathered by Rule 6
+        int sweptSide = data[rec + UndoStack.SWEPT_SIDE];
+        if (sweptSide != 0)
+        {
+            int start = (sweptSide == 1) ? START_S : START_N;
+            int house = (sweptSide == 1) ? HOUSE_S : HOUSE_N;
+            for (int i = 0; i < 6; i++)
+            {
+                int n = data[rec + UndoStack.SWEPT + i];
+                board[start + i] = n;
+                board[house] -= n;
+            }
+        }
+        
+        //Put back captured seeds
+        int capturePit = data[rec + UndoStack.CAPTURE_PIT];
+        if (capturePit >= 0)
+        {
+            int captured = data[rec + UndoStack.CAPTURED];
+            board[HOUSE[nextPlayer]] -= captured + 1;
+            board[capturePit] = 1;
+            board[OPPOSITE[capturePit]] = captured;
+        }
+        
+        //Take back sown seeds
+        int laps = seeds / 13;
+        int rest = seeds - laps * 13;
+        if (laps > 0)
+        {
+            int[] pits = SOW_PITS[nextPlayer];
+            for (int i = 0; i < 13; i++)
+            {
+                board[pits[i]] -= laps;
+            }
+        }
+        int[] path = SOW_PATH[nextPlayer][pit];
+        for (int k = 1; k <= rest; k++)
+        {
+            board[path[k]]--;
+        }
+        board[pit] = seeds;
+        hash = undo.hashes[rec / UndoStack.STRIDE];
+        seedsS = data[rec + UndoStack.SEEDS_S];
+        seedsN = data[rec + UndoStack.SEEDS_N];
+        maskS = data[rec + UndoStack.MASKS] & 0x3F;
+        maskN = data[rec + UndoStack.MASKS] >>> 6;
+        ended = (seedsS == 0 || seedsN == 0);
     }
     
     /**
@@ -297,6 +569,75 @@ public class GameState
     {
         if (nextPlayer == 1) nextPlayer = 2;
         else nextPlayer = 1;
+        hash ^= ZOBRIST_PLAYER;
+    }
+    
+    /**
+     * Sets the number of seeds in a pit and updates the Zobrist hash,
+     * seed totals and legal move masks.
+     * 
+     * @param pit Pit index (0-13)
+     * @param seeds New number of seeds
+     */
+    private void setPit(int pit, int seeds)
+    {
+        hash ^= ZOBRIST[pit][board[pit]] ^ ZOBRIST[pit][seeds];
+        int side = PIT_SIDE[pit];
+        if (side == 1)
+        {
+            seedsS += seeds - board[pit];
+            maskS = (seeds > 0) ? (maskS | PIT_BIT[pit]) : (maskS & ~PIT_BIT[pit]);
+        }
+        else if (side == 2)
+        {
+            seedsN += seeds - board[pit];
+            maskN = (seeds > 0) ? (maskN | PIT_BIT[pit]) : (maskN & ~PIT_BIT[pit]);
+        }
+        board[pit] = seeds;
+    }
+    
+    /**
+     * Computes the Zobrist hash, the seed totals, the legal move
+     * masks and the game over flag from scratch.
+     */
+    private void recompute()
+    {
+        hash = 0;
+        seedsS = 0;
+        seedsN = 0;
+        maskS = 0;
+        maskN = 0;
+        for (int i = 0; i < 14; i++)
+        {
+            hash ^= ZOBRIST[i][board[i]];
+            if (PIT_SIDE[i] == 1)
+            {
+                seedsS += board[i];
+                if (board[i] > 0) maskS |= PIT_BIT[i];
+            }
+            if (PIT_SIDE[i] == 2)
+            {
+                seedsN += board[i];
+                if (board[i] > 0) maskN |= PIT_BIT[i];
+            }
+        }
+        if (nextPlayer == 2) hash ^= ZOBRIST_PLAYER;
+        ended = (seedsS == 0 || seedsN == 0);
+    }
+    
+    /**
+     * Returns the 64-bit Zobrist hash for this game state. The hash
+     * is kept up to date by {@link #makeMove(int)} and {@link #gameEnded()},
+     * and the same position always gives the same hash, also between runs.
+     * <p>
+     * If the state was created from a board array, that array must not be
+     * changed from outside afterwards.
+     * 
+     * @return Zobrist hash
+     */
+    public long getHash()
+    {
+        return hash;
     }
     
     /**
@@ -332,50 +673,72 @@ public class GameState
      */
     public boolean gameEnded()
     {
-        int seeds = 0;
-        
-        //Player 1 - South
-        for (int i = START_S; i <= END_S; i++)
+        //Boards created from outside may not be swept yet
+        if (ended && (seedsS | seedsN) != 0)
         {
-            seeds += board[i];
+            sweep(null, -1);
         }
-        if (seeds == 0)
+        return ended;
+    }
+    
+    /**
+     * Checks if the Kalaha game has ended, without gathering any
+     * remaining seeds. Unlike {@link #gameEnded()} this never changes
+     * the game state.
+     * 
+     * @return True if one of the players has 0 seeds in all own ambos.
+     */
+    public boolean isTerminal()
+    {
+        return ended;
+    }
+    
+    /**
+     * Returns the total number of seeds in a player's ambos.
+     * 
+     * @param player The player (1-2)
+     * @return Number of seeds on the player's side of the board
+     */
+    public int getSideSeeds(int player)
+    {
+        return (player == 1) ? seedsS : seedsN;
+    }
+    
+    /**
+     * Updates the game over flag, and if one of the players has 0 seeds
+     * in all own ambos, gathers the opponent's seeds into the opponent's
+     * house (Rule 6).
+     * 
+     * @param undo Undo stack to record gathered seeds on, or null
+     * @param rec Offset of the undo record for the current move
+     */
+    private void sweep(UndoStack undo, int rec)
+    {
+        ended = (seedsS == 0 || seedsN == 0);
+        if (!ended) return;
+        
+        //Player 1 (south) is empty, gather north's seeds. Otherwise the other way around.
+        int side = (seedsS == 0) ? 2 : 1;
+        int start = (side == 1) ? START_S : START_N;
+        int house = HOUSE[side];
+        
+        //Rule 6
+        if (rec >= 0)
         {
-            //Gather opponents seeds (if any)
-            //Rule 6
-            for (int i = START_N; i <= END_N; i++)
+            undo.data[rec + UndoStack.SWEPT_SIDE] = side;
+            for (int i = 0; i < 6; i++)
             {
-                if (board[i] > 0)
-                {
-                    board[HOUSE_N] += board[i];
-                    board[i] = 0;
-                }
+                undo.data[rec + UndoStack.SWEPT + i] = board[start + i];
             }
-            return true;
         }
-        
-        //Player 2 - North
-        seeds = 0;
-        for (int i = START_N; i <= END_N; i++)
+        for (int i = start; i < start + 6; i++)
         {
-            seeds += board[i];
-        }
-        if (seeds == 0)
-        {
-            //Gather opponents seeds (if any)
-            //Rule 6
-            for (int i = START_S; i <= END_S; i++)
+            if (board[i] > 0)
             {
-                if (board[i] > 0)
-                {
-                    board[HOUSE_S] += board[i];
-                    board[i] = 0;
-                }
+                setPit(house, board[house] + board[i]);
+                setPit(i, 0);
             }
-            return true;
         }
-        
-        return false;
     }
     
     /**
@@ -416,24 +779,7 @@ public class GameState
      */
     public int getNoValidMoves(int player)
     {
-        int cnt = 0;
-        
-        if (player == 1)
-        {
-            for (int i = START_S; i <= END_S; i++)
-            {
-                if (board[i] > 0) cnt++;
-            }
-        }
-        else
-        {
-            for (int i = START_N; i <= END_N; i++)
-            {
-                if (board[i] > 0) cnt++;
-            }
-        }
-        
-        return cnt;
+        return Integer.bitCount((player == 1) ? maskS : maskN);
     }
     
     /**
@@ -446,15 +792,99 @@ public class GameState
     {
         //Internal ambo number of 0-5
         ambo--;
-        if (nextPlayer == 1)
-        {
-            if (board[START_S + ambo] > 0) return true;
-        }
-        else
+        if (ambo < 0 || ambo > 5) return false;
+        return (legalMoves() & (1 << ambo)) != 0;
+    }
+    
+    /**
+     * Checks if a move would give the next player an extra move,
+     * i.e. if the last seed ends up in the player's own house.
+     * 
+     * @param ambo The move (1-6)
+     * @return True if the move gives an extra move, false if not or if the move is not possible
+     */
+    public boolean givesExtraMove(int ambo)
+    {
+        int pit = ((nextPlayer == 1) ? START_S : START_N) + ambo - 1;
+        int seeds = board[pit];
+        if (seeds == 0) return false;
+        int rest = seeds % 13;
+        return SOW_PATH[nextPlayer][pit][(rest == 0) ? 13 : rest] == HOUSE[nextPlayer];
+    }
+    
+    /**
+     * Returns the number of opponent seeds a move by the next player
+     * would capture, without making the move.
+     * 
+     * @param ambo The move (1-6)
+     * @return Number of captured opponent seeds, 0 if the move makes no capture
+     */
+    public int getCaptureSize(int ambo)
+    {
+        int pit = ((nextPlayer == 1) ? START_S : START_N) + ambo - 1;
+        int seeds = board[pit];
+        if (seeds == 0) return 0;
+        int laps = seeds / 13;
+        int rest = seeds - laps * 13;
+        int last = SOW_PATH[nextPlayer][pit][(rest == 0) ? 13 : rest];
+        if (!OWN_AMBO[nextPlayer][last]) return 0;
+        
+        //Seeds in the last pit after sowing, must be exactly 1 (the pit was empty)
+        int lastSeeds = (rest == 0) ? laps : board[last] + laps + 1;
+        if (lastSeeds != 1) return 0;
+        
+        int oi = OPPOSITE[last];
+        return board[oi] + laps + ((SOW_STEP[nextPlayer][pit][oi] <= rest) ? 1 : 0);
+    }
+    
+    /**
+     * Returns the possible moves for the next player as a bit mask,
+     * where bit 0 is ambo 1 and bit 5 is ambo 6. The mask is kept
+     * up to date by makeMove, so this is a plain read.
+     * 
+     * @return Legal move mask (0 if no move is possible)
+     */
+    public int legalMoves()
+    {
+        return (nextPlayer == 1) ? maskS : maskN;
+    }
+    
+    /**
+     * Returns the lowest move (1-6) in a move mask.
+     * Use {@code mask & (mask - 1)} to remove it from the mask.
+     * 
+     * @param mask Move mask
+     * @return Lowest move in the mask, or -1 if the mask is empty
+     */
+    public static int firstMove(int mask)
+    {
+        if (mask == 0) return -1;
+        return Integer.numberOfTrailingZeros(mask) + 1;
+    }
+    
+    /**
+     * Copies the moves in a move mask to an array, in the order
+     * given by the caller. Moves in the mask that are missing from the
+     * order are skipped.
+     * 
+     * @param mask Move mask
+     * @param order Moves (1-6) in the order they should be visited
+     * @param moves Destination array, at least 6 long
+     * @return Number of moves written to the destination array
+     */
+    public static int orderMoves(int mask, int[] order, int[] moves)
+    {
+        int cnt = 0;
+        for (int i = 0; i < order.length; i++)
         {
-            if (board[START_N + ambo] > 0) return true;
+            int m = order[i];
+            if ((mask & (1 << (m - 1))) != 0)
+            {
+                moves[cnt++] = m;
+                mask &= ~(1 << (m - 1));
+            }
         }
-        return false;
+        return cnt;
     }
     
     /**
@@ -467,6 +897,7 @@ public class GameState
     {
         //In case we have a winner, this method
         //needs to be called to update the game state.
+        //It only sweeps boards that were not created by makeMove.
         gameEnded();
         
         if (player == 1)
@@ -486,14 +917,41 @@ public class GameState
      */
     public String toString()
     {
-	String str = "";
-
-	for(int i = 0; i < 14; i++)
-	{
-            str += board[i] + ";";
-	}
-        str += nextPlayer;
-
-	return str;
+        return appendTo(new StringBuilder(BoardCodec.MAX_LENGTH)).toString();
+    }
+    
+    /**
+     * Appends the board string representation for this game state.
+     * 
+     * @param sb String builder to append to
+     * @return The string builder
+     */
+    public StringBuilder appendTo(StringBuilder sb)
+    {
+        return BoardCodec.write(board, nextPlayer, sb);
+    }
+    
+    /**
+     * Writes the board string representation for this game state
+     * to a char array.
+     * 
+     * @param dst Destination array, room for at least {@link BoardCodec#MAX_LENGTH} chars
+     * @param off Offset to start writing at
+     * @return Offset just after the board string
+     */
+    public int writeTo(char[] dst, int off)
+    {
+        return BoardCodec.write(board, nextPlayer, dst, off);
+    }
+    
+    /**
+     * Writes the board string representation for this game state
+     * as ASCII bytes at the buffer's position.
+     * 
+     * @param dst Destination buffer
+     */
+    public void writeTo(ByteBuffer dst)
+    {
+        BoardCodec.write(board, nextPlayer, dst);
     }
 }
@@ -0,0 +1,379 @@
+package kalaha;
+
+/**
+ * Primitive Kalaha board engine. A position is encoded in two longs
+ * so that the search can run without allocating a new object per node.
+ * <p>
+ * Every pit (index 0-13, same layout as {@link GameState}) takes 7 bits,
+ * which is enough for all 72 seeds. Pits 0-8 are stored in the low word,
+ * pits 9-13 in the high word, and bit 35 of the high word holds the side
+ * to move (0 = player 1, 1 = player 2). Since no pit ever holds more than
+ * 127 seeds, adding seeds to a pit is a plain addition of a shifted value.
+ */
+public final class PackedBoard
+{
+    /**
+     * Number of bits used for each pit.
+     */
+    public static final int PIT_BITS = 7;
+
+    /**
+     * Bit mask for a single pit value.
+     */
+    public static final long PIT_MASK = 0x7FL;
+
+    /**
+     * Number of pits stored in the low word.
+     */
+    public static final int LOW_PITS = 9;
+
+    /**
+     * Bit in the high word holding the side to move.
+     */
+    public static final long PLAYER_BIT = 1L << 35;
+
+    //Sowing order (next pit) for each player, skipping the opponent's house
+    private static final int[][] NEXT_PIT = new int[3][14];
+
+    //Packed +1 on every pit a player sows into, low and high word
+    private static final long[] LAP_LO = new long[3];
+    private static final long[] LAP_HI = new long[3];
+
+    //Packed mask of each player's ambos, low and high word
+    private static final long[] AMBOS_LO = new long[3];
+    private static final long[] AMBOS_HI = new long[3];
+
+    static
+    {
+        for (int p = 1; p <= 2; p++)
+        {
+            int skip = (p == 1) ? GameState.HOUSE_N : GameState.HOUSE_S;
+            for (int i = 0; i < 14; i++)
+            {
+                int n = (i + 1) % 14;
+                if (n == skip) n = (n + 1) % 14;
+                NEXT_PIT[p][i] = n;
+
+                if (i != skip)
+                {
+                    if (i < LOW_PITS) LAP_LO[p] += 1L << shift(i);
+                    else LAP_HI[p] += 1L << shift(i);
+                }
+            }
+
+            int start = (p == 1) ? GameState.START_S : GameState.START_N;
+            for (int i = start; i < start + 6; i++)
+            {
+                if (i < LOW_PITS) AMBOS_LO[p] |= PIT_MASK << shift(i);
+                else AMBOS_HI[p] |= PIT_MASK << shift(i);
+            }
+        }
+    }
+
+    private PackedBoard()
+    {
+
+    }
+
+    /**
+     * Returns the bit offset of a pit within its word.
+     *
+     * @param pit Pit index (0-13)
+     * @return Bit offset
+     */
+    private static int shift(int pit)
+    {
+        return (pit < LOW_PITS ? pit : pit - LOW_PITS) * PIT_BITS;
+    }
+
+    /**
+     * Packs the low word of a board array.
+     *
+     * @param board Board array (14 pits)
+     * @return Low word
+     */
+    public static long packLow(int[] board)
+    {
+        long lo = 0;
+        for (int i = 0; i < LOW_PITS; i++)
+        {
+            lo |= (long)board[i] << shift(i);
+        }
+        return lo;
+    }
+
+    /**
+     * Packs the high word of a board array.
+     *
+     * @param board Board array (14 pits)
+     * @param nextPlayer Next player to make a move (1 or 2)
+     * @return High word
+     */
+    public static long packHigh(int[] board, int nextPlayer)
+    {
+        long hi = 0;
+        for (int i = LOW_PITS; i < 14; i++)
+        {
+            hi |= (long)board[i] << shift(i);
+        }
+        if (nextPlayer == 2) hi |= PLAYER_BIT;
+        return hi;
+    }
+
+    /**
+     * Unpacks a position into a board array.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @param board Destination board array (14 pits)
+     */
+    public static void unpack(long lo, long hi, int[] board)
+    {
+        for (int i = 0; i < 14; i++)
+        {
+            board[i] = getPit(lo, hi, i);
+        }
+    }
+
+    /**
+     * Returns the number of seeds in a pit.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @param pit Pit index (0-13)
+     * @return Number of seeds
+     */
+    public static int getPit(long lo, long hi, int pit)
+    {
+        if (pit < LOW_PITS) return (int)((lo >>> shift(pit)) & PIT_MASK);
+        return (int)((hi >>> shift(pit)) & PIT_MASK);
+    }
+
+    /**
+     * Returns the next player to make a move.
+     *
+     * @param hi High word
+     * @return Next player (1 or 2)
+     */
+    public static int getNextPlayer(long hi)
+    {
+        return (hi & PLAYER_BIT) == 0 ? 1 : 2;
+    }
+
+    /**
+     * Returns the number of seeds for the specified ambo and player.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @param ambo The ambo (1-6)
+     * @param player The player (1-2)
+     * @return Number of seeds
+     */
+    public static int getSeeds(long lo, long hi, int ambo, int player)
+    {
+        int start = (player == 1) ? GameState.START_S : GameState.START_N;
+        return getPit(lo, hi, start + ambo - 1);
+    }
+
+    /**
+     * Checks if a move is possible for the player to move.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @param ambo The move to make (1-6)
+     * @return True if the ambo holds at least one seed
+     */
+    public static boolean moveIsPossible(long lo, long hi, int ambo)
+    {
+        return getSeeds(lo, hi, ambo, getNextPlayer(hi)) > 0;
+    }
+
+    /**
+     * Returns the legal moves for the player to move as a bit mask,
+     * where bit 0 is ambo 1 and bit 5 is ambo 6.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @return Legal move mask
+     */
+    public static int legalMoves(long lo, long hi)
+    {
+        int player = getNextPlayer(hi);
+        int start = (player == 1) ? GameState.START_S : GameState.START_N;
+        int mask = 0;
+        for (int i = 0; i < 6; i++)
+        {
+            if (getPit(lo, hi, start + i) > 0) mask |= 1 << i;
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the total number of seeds in a player's ambos.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @param player The player (1-2)
+     * @return Number of seeds on the player's side
+     */
+    public static int getSideSeeds(long lo, long hi, int player)
+    {
+        int start = (player == 1) ? GameState.START_S : GameState.START_N;
+        int seeds = 0;
+        for (int i = start; i < start + 6; i++)
+        {
+            seeds += getPit(lo, hi, i);
+        }
+        return seeds;
+    }
+
+    /**
+     * Returns the score (number of seeds in the house) for a player.
+     * Positions produced by {@link #makeMove} are already swept, so
+     * no Rule 6 handling is needed here.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @param player The player (1-2)
+     * @return Score for the player
+     */
+    public static int getScore(long lo, long hi, int player)
+    {
+        return getPit(lo, hi, (player == 1) ? GameState.HOUSE_S : GameState.HOUSE_N);
+    }
+
+    /**
+     * Checks if the game has ended, i.e. one side has no seeds left.
+     * Unlike {@link GameState#gameEnded()} this does not modify anything.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @return True if the game has ended
+     */
+    public static boolean gameEnded(long lo, long hi)
+    {
+        return ((lo & AMBOS_LO[1]) | (hi & AMBOS_HI[1])) == 0
+            || ((lo & AMBOS_LO[2]) | (hi & AMBOS_HI[2])) == 0;
+    }
+
+    /**
+     * Returns the winner for an ended game.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @return Winner (1 or 2), 0 if draw, and -1 if game is still running.
+     */
+    public static int getWinner(long lo, long hi)
+    {
+        if (!gameEnded(lo, hi)) return -1;
+        int s1 = getScore(lo, hi, 1);
+        int s2 = getScore(lo, hi, 2);
+        if (s1 > s2) return 1;
+        if (s2 > s1) return 2;
+        return 0;
+    }
+
+    /**
+     * Makes a move and writes the resulting position to dst[off] (low word)
+     * and dst[off + 1] (high word). The source position is left unchanged,
+     * so a search can keep one pair of longs per ply in a single array.
+     * Follows the same rules as {@link GameState#makeMove(int)}, including
+     * the Rule 6 sweep when a side runs out of seeds.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @param ambo The move to make (1-6)
+     * @param dst Destination array
+     * @param off Offset in the destination array
+     * @return True if the move was successful, false if not.
+     */
+    public static boolean makeMove(long lo, long hi, int ambo, long[] dst, int off)
+    {
+        int player = getNextPlayer(hi);
+        int pit = ((player == 1) ? GameState.START_S : GameState.START_N) + ambo - 1;
+        int seeds = getPit(lo, hi, pit);
+        if (seeds == 0)
+        {
+            //No legal move...
+            return false;
+        }
+
+        //Pickup seeds
+        if (pit < LOW_PITS) lo &= ~(PIT_MASK << shift(pit));
+        else hi &= ~(PIT_MASK << shift(pit));
+
+        //Full laps add the same amount to every pit the player sows into
+        int laps = seeds / 13;
+        int rest = seeds % 13;
+        lo += laps * LAP_LO[player];
+        hi += laps * LAP_HI[player];
+
+        //Sow the remainder one pit at a time
+        int[] next = NEXT_PIT[player];
+        int last = pit;
+        for (int i = 0; i < rest; i++)
+        {
+            last = next[last];
+            if (last < LOW_PITS) lo += 1L << shift(last);
+            else hi += 1L << shift(last);
+        }
+
+        int house = (player == 1) ? GameState.HOUSE_S : GameState.HOUSE_N;
+        int start = (player == 1) ? GameState.START_S : GameState.START_N;
+
+        //Possible capture of opponent's seeds
+        if (last >= start && last < start + 6 && getPit(lo, hi, last) == 1)
+        {
+            int oi = 14 - last;
+            int captured = getPit(lo, hi, oi);
+            if (captured > 0)
+            {
+                lo = addPit(lo, hi, last, -1, true);
+                hi = addPit(lo, hi, last, -1, false);
+                lo = addPit(lo, hi, oi, -captured, true);
+                hi = addPit(lo, hi, oi, -captured, false);
+                lo = addPit(lo, hi, house, captured + 1, true);
+                hi = addPit(lo, hi, house, captured + 1, false);
+            }
+        }
+
+        //Extra move if the last seed landed in the house
+        if (last != house) hi ^= PLAYER_BIT;
+
+        //Rule 6: gather remaining seeds if a side is empty
+        for (int p = 1; p <= 2; p++)
+        {
+            int other = 3 - p;
+            if (((lo & AMBOS_LO[p]) | (hi & AMBOS_HI[p])) == 0)
+            {
+                int rem = getSideSeeds(lo, hi, other);
+                lo &= ~AMBOS_LO[other];
+                hi &= ~AMBOS_HI[other];
+                int oHouse = (other == 1) ? GameState.HOUSE_S : GameState.HOUSE_N;
+                lo = addPit(lo, hi, oHouse, rem, true);
+                hi = addPit(lo, hi, oHouse, rem, false);
+                break;
+            }
+        }
+
+        dst[off] = lo;
+        dst[off + 1] = hi;
+        return true;
+    }
+
+    /**
+     * Adds seeds to a pit and returns the updated low or high word.
+     *
+     * @param lo Low word
+     * @param hi High word
+     * @param pit Pit index (0-13)
+     * @param n Seeds to add (may be negative)
+     * @param low True to return the low word, false for the high word
+     * @return Updated word
+     */
+    private static long addPit(long lo, long hi, int pit, int n, boolean low)
+    {
+        if (pit < LOW_PITS) return low ? lo + ((long)n << shift(pit)) : hi;
+        return low ? lo : hi + ((long)n << shift(pit));
+    }
+}
@@ -0,0 +1,478 @@
+package kalaha;
+
+/**
+ * Move generation benchmark and self-check for the Kalaha engine.
+ * Enumerates all move sequences to a fixed depth and counts the
+ * positions reached.
+ * <p>
+ * In differential mode every move is made with a reference engine, the
+ * in-place {@link GameState#makeMove(int, UndoStack)} /
+ * {@link GameState#unmakeMove(UndoStack)} and {@link PackedBoard#makeMove},
+ * and the run stops at the first position where they disagree. The
+ * reference is a frozen copy of the original seed-by-seed sowing loop, so
+ * it shares none of the tables used by {@link GameState}.
+ * <p>
+ * Usage: {@code java -cp Kalaha.jar kalaha.Perft [-diff] depth [board ...]}
+ * where each board is a board string as sent by the server. Without boards
+ * the start position is used.
+ */
+public class Perft
+{
+    //Counters
+    private long nodes;
+    private long leaves;
+    private long terminals;
+    private long extraTurns;
+
+    //Differential mode
+    private boolean diff;
+    private UndoStack undo;
+    private long[] packed;
+    private int[] path;
+    private int[][] refBoards;
+    private int[] refPlayers;
+
+    /**
+     * Creates a new perft run.
+     *
+     * @param diff True to check the optimized engines against the reference
+     */
+    public Perft(boolean diff)
+    {
+        this.diff = diff;
+    }
+
+    /**
+     * Enumerates all move sequences from a position to a fixed depth.
+     * The game state is left unchanged.
+     *
+     * @param state Start position
+     * @param depth Number of moves (plies) to enumerate
+     * @return Number of leaves (positions at the given depth)
+     * @throws IllegalStateException In differential mode, if the engines disagree
+     */
+    public long run(GameState state, int depth)
+    {
+        nodes = 0;
+        leaves = 0;
+        terminals = 0;
+        extraTurns = 0;
+        undo = new UndoStack(depth + 1);
+        packed = new long[2 * (depth + 1)];
+        path = new int[depth + 1];
+        refBoards = new int[depth + 1][14];
+        refPlayers = new int[depth + 1];
+        for (int i = 0; i < 6; i++)
+        {
+            refBoards[0][GameState.START_S + i] = state.getSeeds(i + 1, 1);
+            refBoards[0][GameState.START_N + i] = state.getSeeds(i + 1, 2);
+        }
+        refBoards[0][GameState.HOUSE_S] = state.getScore(1);
+        refBoards[0][GameState.HOUSE_N] = state.getScore(2);
+        refPlayers[0] = state.getNextPlayer();
+        packed[0] = state.getPackedLow();
+        packed[1] = state.getPackedHigh();
+
+        if (diff)
+        {
+            perftDiff(state, depth, 0);
+        }
+        else
+        {
+            perft(state, depth);
+        }
+        return leaves;
+    }
+
+    /**
+     * Plain perft, walking the tree in place.
+     *
+     * @param state Current position
+     * @param depth Remaining depth
+     */
+    private void perft(GameState state, int depth)
+    {
+        nodes++;
+        if (state.isTerminal())
+        {
+            terminals++;
+            if (depth == 0) leaves++;
+            return;
+        }
+        if (depth == 0)
+        {
+            leaves++;
+            return;
+        }
+
+        int player = state.getNextPlayer();
+        int moves = state.legalMoves();
+        while (moves != 0)
+        {
+            int m = GameState.firstMove(moves);
+            moves &= moves - 1;
+
+            state.makeMove(m, undo);
+            if (state.getNextPlayer() == player && !state.isTerminal()) extraTurns++;
+            perft(state, depth - 1);
+            state.unmakeMove(undo);
+        }
+    }
+
+    /**
+     * Perft that steps the reference and optimized engines in lockstep.
+     *
+     * @param state Current position (in-place engine)
+     * @param depth Remaining depth
+     * @param ply Current ply from the root
+     */
+    private void perftDiff(GameState state, int depth, int ply)
+    {
+        nodes++;
+        long lo = packed[2 * ply];
+        long hi = packed[2 * ply + 1];
+        check(state.isTerminal() == PackedBoard.gameEnded(lo, hi), state, ply, "game ended");
+        if (state.isTerminal())
+        {
+            terminals++;
+            if (depth == 0) leaves++;
+            return;
+        }
+        if (depth == 0)
+        {
+            leaves++;
+            return;
+        }
+
+        int player = state.getNextPlayer();
+        int mask = 0;
+        for (int m = 1; m <= 6; m++)
+        {
+            if (state.getSeeds(m, player) > 0) mask |= 1 << (m - 1);
+        }
+        check(state.legalMoves() == mask, state, ply, "legal moves");
+        check(PackedBoard.legalMoves(lo, hi) == mask, state, ply, "packed legal moves");
+
+        String before = state.toString();
+        long hash = state.getHash();
+        for (int m = 1; m <= 6; m++)
+        {
+            path[ply] = m;
+            int[] refBoard = refBoards[ply + 1];
+            System.arraycopy(refBoards[ply], 0, refBoard, 0, 14);
+            refPlayers[ply + 1] = referenceMove(refBoard, refPlayers[ply], m);
+            boolean ok = (refPlayers[ply + 1] != 0);
+            check(ok == ((mask & (1 << (m - 1))) != 0), state, ply + 1, "move accepted");
+            if (!ok) continue;
+
+            check(state.makeMove(m, undo), state, ply + 1, "in-place move accepted");
+            check(PackedBoard.makeMove(lo, hi, m, packed, 2 * (ply + 1)), state, ply + 1, "packed move accepted");
+
+            //Hash and seed totals of the reference are computed from scratch
+            GameState ref = new GameState(refBoard.clone(), refPlayers[ply + 1]);
+            String refStr = ref.toString();
+            check(refStr.equals(state.toString()), state, ply + 1, "board after move, expected " + refStr);
+            check(refStr.equals(new GameState(packed[2 * (ply + 1)], packed[2 * (ply + 1) + 1]).toString()),
+                    state, ply + 1, "packed board after move, expected " + refStr);
+            check(ref.getHash() == state.getHash(), state, ply + 1, "hash after move");
+            check(ref.getSideSeeds(1) == state.getSideSeeds(1) && ref.getSideSeeds(2) == state.getSideSeeds(2),
+                    state, ply + 1, "seed totals after move");
+
+            if (state.getNextPlayer() == player && !state.isTerminal()) extraTurns++;
+            perftDiff(state, depth - 1, ply + 1);
+
+            state.unmakeMove(undo);
+            check(before.equals(state.toString()), state, ply, "board after unmake, expected " + before);
+            check(hash == state.getHash(), state, ply, "hash after unmake");
+        }
+    }
+
+    /**
+     * Reference move for the differential mode. This is a frozen copy of
+     * the original {@code GameState.makeMove} sowing loop and game over
+     * check; do not change it together with the engine.
+     *
+     * @param board Board representation, changed in place
+     * @param nextPlayer Player to make the move (1 or 2)
+     * @param ambo The move to make (1-6)
+     * @return Next player to make a move, or 0 if the move was not legal
+     */
+    private static int referenceMove(int[] board, int nextPlayer, int ambo)
+    {
+        //Internal ambo number of 0-5
+        ambo--;
+        
+        int cMoveI;
+        if (nextPlayer == 1)
+        {
+            cMoveI = GameState.START_S + ambo;
+        }
+        else
+        {
+            cMoveI = GameState.START_N + ambo;
+        }
+        
+        //Check if legal move
+        if (board[cMoveI] == 0)
+        {
+            //No legal move...
+            return 0;
+        }
+        
+        //Pickup seeds
+        int seeds = board[cMoveI];
+        board[cMoveI] = 0;
+        boolean lastIsHouse = false;
+        
+        //Sow seeds
+        while (seeds > 0)
+        {
+            //Take a step
+            cMoveI++;
+            if (cMoveI >= 14) cMoveI = 0;
+            
+            if ( (nextPlayer == 1 && cMoveI == GameState.HOUSE_N) || (nextPlayer == 2 && cMoveI == GameState.HOUSE_S) )
+            {
+                //Don't sow in opponents house
+            }
+            else
+            {
+                //Sow a seed
+                board[cMoveI]++;
+                seeds--;
+            }
+            
+            //Check special cases for last seed
+            if (seeds == 0)
+            {
+                //Check for extra move
+                if (nextPlayer == 1 && cMoveI == GameState.HOUSE_S) lastIsHouse = true;
+                if (nextPlayer == 2 && cMoveI == GameState.HOUSE_N) lastIsHouse = true;
+                
+                //Check capture
+                boolean capture = false;
+                if (board[cMoveI] == 1)
+                {
+                    if (nextPlayer == 1)
+                    {
+                        if (cMoveI >= GameState.START_S && cMoveI <= GameState.END_S) capture = true;
+                    }
+                    if (nextPlayer == 2)
+                    {
+                        if (cMoveI >= GameState.START_N && cMoveI <= GameState.END_N) capture = true;
+                    }
+                }
+                
+                //Possible capture of opponent's seeds
+                if (capture)
+                {
+                    int oi = referenceOpposite(cMoveI);
+                    if (board[oi] > 0)
+                    {
+                        if (nextPlayer == 1)
+                        {
+                            board[GameState.HOUSE_S] += board[cMoveI] + board[oi];
+                        }
+                        else if (nextPlayer == 2)
+                        {
+                            board[GameState.HOUSE_N] += board[cMoveI] + board[oi];
+                        }
+                        board[cMoveI] = 0;
+                        board[oi] = 0;
+                    }
+                }
+            }
+        }
+        
+        //Check if the game ended, as the original gameEnded()
+        seeds = 0;
+        for (int i = GameState.START_S; i <= GameState.END_S; i++)
+        {
+            seeds += board[i];
+        }
+        if (seeds == 0)
+        {
+            //Gather opponents seeds (if any)
+            //Rule 6
+            for (int i = GameState.START_N; i <= GameState.END_N; i++)
+            {
+                if (board[i] > 0)
+                {
+                    board[GameState.HOUSE_N] += board[i];
+                    board[i] = 0;
+                }
+            }
+        }
+        else
+        {
+            seeds = 0;
+            for (int i = GameState.START_N; i <= GameState.END_N; i++)
+            {
+                seeds += board[i];
+            }
+            if (seeds == 0)
+            {
+                //Gather opponents seeds (if any)
+                //Rule 6
+                for (int i = GameState.START_S; i <= GameState.END_S; i++)
+                {
+                    if (board[i] > 0)
+                    {
+                        board[GameState.HOUSE_S] += board[i];
+                        board[i] = 0;
+                    }
+                }
+            }
+        }
+        
+        if (lastIsHouse)
+        {
+            return nextPlayer;
+        }
+        return (nextPlayer == 1) ? 2 : 1;
+    }
+    
+    /**
+     * Returns the opposite ambo index for the reference move, a frozen
+     * copy of the original lookup.
+     * 
+     * @param ambo The ambo
+     * @return Opposite ambo index, or -1 if failed to find the opposite ambo.
+     */
+    private static int referenceOpposite(int ambo)
+    {
+        if (ambo == GameState.START_S) return GameState.END_N;
+        if (ambo == GameState.START_S+1) return GameState.END_N-1;
+        if (ambo == GameState.START_S+2) return GameState.END_N-2;
+        if (ambo == GameState.START_S+3) return GameState.END_N-3;
+        if (ambo == GameState.START_S+4) return GameState.END_N-4;
+        if (ambo == GameState.START_S+5) return GameState.END_N-5;
+        if (ambo == GameState.START_N) return GameState.END_S;
+        if (ambo == GameState.START_N+1) return GameState.END_S-1;
+        if (ambo == GameState.START_N+2) return GameState.END_S-2;
+        if (ambo == GameState.START_N+3) return GameState.END_S-3;
+        if (ambo == GameState.START_N+4) return GameState.END_S-4;
+        if (ambo == GameState.START_N+5) return GameState.END_S-5;
+
+        return -1;
+    }
+
+    /**
+     * Fails the differential run if a check does not hold.
+     *
+     * @param ok Check result
+     * @param state Position at the failure
+     * @param ply Number of moves from the root
+     * @param what Description of the check
+     */
+    private void check(boolean ok, GameState state, int ply, String what)
+    {
+        if (ok) return;
+
+        StringBuilder moves = new StringBuilder();
+        for (int i = 0; i < ply; i++)
+        {
+            if (i > 0) moves.append(',');
+            moves.append(path[i]);
+        }
+        throw new IllegalStateException("Divergence in " + what + " after moves [" + moves + "] at " + state);
+    }
+
+    /**
+     * Returns the number of positions visited in the last run.
+     *
+     * @return Node count
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of positions at the full depth in the last run.
+     *
+     * @return Leaf count
+     */
+    public long getLeaves()
+    {
+        return leaves;
+    }
+
+    /**
+     * Returns the number of ended games reached in the last run.
+     *
+     * @return Terminal count
+     */
+    public long getTerminals()
+    {
+        return terminals;
+    }
+
+    /**
+     * Returns the number of moves in the last run that gave the
+     * player an extra move.
+     *
+     * @return Extra turn count
+     */
+    public long getExtraTurns()
+    {
+        return extraTurns;
+    }
+
+    /**
+     * Runs perft from the command line.
+     *
+     * @param args [-diff] depth [board ...]
+     */
+    public static void main(String[] args)
+    {
+        int a = 0;
+        boolean diff = false;
+        if (args.length > 0 && args[0].equals("-diff"))
+        {
+            diff = true;
+            a++;
+        }
+        if (args.length <= a)
+        {
+            System.err.println("Usage: kalaha.Perft [-diff] depth [board ...]");
+            System.exit(2);
+        }
+        int maxDepth = Integer.parseInt(args[a++]);
+
+        String[] boards;
+        if (args.length > a)
+        {
+            boards = new String[args.length - a];
+            System.arraycopy(args, a, boards, 0, boards.length);
+        }
+        else
+        {
+            boards = new String[] { new GameState().toString() };
+        }
+
+        Perft perft = new Perft(diff);
+        for (String board : boards)
+        {
+            System.out.println("Position " + board + (diff ? " (differential)" : ""));
+            for (int depth = 1; depth <= maxDepth; depth++)
+            {
+                GameState state = new GameState(board);
+                long start = System.nanoTime();
+                try
+                {
+                    perft.run(state, depth);
+                }
+                catch (IllegalStateException ex)
+                {
+                    System.out.println("FAILED: " + ex.getMessage());
+                    System.exit(1);
+                }
+                long ns = Math.max(1, System.nanoTime() - start);
+                System.out.println(String.format("depth %2d: leaves %d, terminals %d, extra turns %d, nodes %d, %.0f nodes/sec",
+                        depth, perft.getLeaves(), perft.getTerminals(), perft.getExtraTurns(), perft.getNodes(),
+                        perft.getNodes() * 1e9 / ns));
+            }
+        }
+    }
+}
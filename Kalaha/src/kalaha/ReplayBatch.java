@@ -0,0 +1,187 @@
+package kalaha;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays many logged games in parallel with {@link GameState#replay}.
+ * Games are split into chunks that are replayed on a fixed thread pool,
+ * each game starting from a copy of the same start position.
+ */
+public class ReplayBatch
+{
+    /**
+     * Number of games replayed by one task.
+     */
+    static final int CHUNK = 256;
+
+    //Results, one entry per game
+    private final int[] plies;
+    private final long[] finalLow;
+    private final long[] finalHigh;
+    private final int[] winners;
+    private final long[][] hashes;
+
+    /**
+     * Replays a batch of games.
+     *
+     * @param start Start position for every game (left unchanged)
+     * @param games Move sequences (1-6), one per game
+     * @param keepHashes True to keep the Zobrist hash after every move of every game
+     * @param threads Number of threads to use
+     * @throws InterruptedException If interrupted while waiting for the replay
+     */
+    public ReplayBatch(final GameState start, final int[][] games, final boolean keepHashes, int threads)
+        throws InterruptedException
+    {
+        int n = games.length;
+        plies = new int[n];
+        finalLow = new long[n];
+        finalHigh = new long[n];
+        winners = new int[n];
+        hashes = keepHashes ? new long[n][] : null;
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try
+        {
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for (int from = 0; from < n; from += CHUNK)
+            {
+                final int first = from;
+                final int last = Math.min(n, from + CHUNK);
+                tasks.add(pool.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        for (int g = first; g < last; g++)
+                        {
+                            replayGame(start.clone(), games[g], g);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> task : tasks)
+            {
+                task.get();
+            }
+        }
+        catch (ExecutionException ex)
+        {
+            throw new RuntimeException("Replay failed", ex.getCause());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Replays one game and stores its results.
+     *
+     * @param state Start position, changed by the replay
+     * @param moves Moves of the game
+     * @param g Game index
+     */
+    private void replayGame(GameState state, int[] moves, int g)
+    {
+        long[] h = (hashes != null) ? new long[moves.length] : null;
+        int n = state.replay(moves, 0, moves.length, h, null);
+        if (h != null)
+        {
+            if (n < moves.length)
+            {
+                long[] cut = new long[n];
+                System.arraycopy(h, 0, cut, 0, n);
+                h = cut;
+            }
+            hashes[g] = h;
+        }
+        plies[g] = n;
+        finalLow[g] = state.getPackedLow();
+        finalHigh[g] = state.getPackedHigh();
+        winners[g] = state.getWinner();
+    }
+
+    /**
+     * Returns the number of games in the batch.
+     *
+     * @return Number of games
+     */
+    public int size()
+    {
+        return plies.length;
+    }
+
+    /**
+     * Returns the number of moves that could be replayed for a game.
+     * Less than the game length if the game contains an impossible move.
+     *
+     * @param game Game index
+     * @return Number of moves replayed
+     */
+    public int getPlies(int game)
+    {
+        return plies[game];
+    }
+
+    /**
+     * Returns the final position of a game.
+     *
+     * @param game Game index
+     * @return Final game state
+     */
+    public GameState getFinalState(int game)
+    {
+        return new GameState(finalLow[game], finalHigh[game]);
+    }
+
+    /**
+     * Returns the low word of the packed final position of a game.
+     *
+     * @param game Game index
+     * @return Low word
+     * @see PackedBoard
+     */
+    public long getFinalLow(int game)
+    {
+        return finalLow[game];
+    }
+
+    /**
+     * Returns the high word of the packed final position of a game.
+     *
+     * @param game Game index
+     * @return High word
+     * @see PackedBoard
+     */
+    public long getFinalHigh(int game)
+    {
+        return finalHigh[game];
+    }
+
+    /**
+     * Returns the winner of a game after the replay.
+     *
+     * @param game Game index
+     * @return Winner (1 or 2), 0 if draw, and -1 if the game had not ended.
+     */
+    public int getWinner(int game)
+    {
+        return winners[game];
+    }
+
+    /**
+     * Returns the Zobrist hash after every replayed move of a game.
+     *
+     * @param game Game index
+     * @return Hashes, or null if the batch was created without keeping hashes
+     */
+    public long[] getHashes(int game)
+    {
+        return (hashes != null) ? hashes[game] : null;
+    }
+}
@@ -0,0 +1,107 @@
+package kalaha;
+
+/**
+ * Preallocated stack of undo records for {@link GameState#makeMove(int, UndoStack)}
+ * and {@link GameState#unmakeMove(UndoStack)}. A search creates one stack
+ * (sized to its maximum depth) and walks the game tree on a single
+ * GameState without allocating per node.
+ * <p>
+ * All records are kept in one flat int array. Each record holds the ambo
+ * index and seeds picked up, the previous next player, the capture (if any)
+ * and the seeds gathered by the Rule 6 sweep (if any), along with the
+ * Zobrist hash, seed totals and legal move masks from before the move.
+ */
+public class UndoStack
+{
+    //Record layout
+    static final int PIT = 0;
+    static final int SEEDS = 1;
+    static final int PLAYER = 2;
+    static final int CAPTURE_PIT = 3;
+    static final int CAPTURED = 4;
+    static final int SWEPT_SIDE = 5;
+    static final int SEEDS_S = 6;
+    static final int SEEDS_N = 7;
+    static final int MASKS = 8;
+    static final int SWEPT = 9;
+    static final int STRIDE = SWEPT + 6;
+
+    //Undo records
+    final int[] data;
+
+    //Zobrist hash from before each move
+    final long[] hashes;
+
+    //Index of the next free record
+    private int size;
+
+    /**
+     * Creates a new undo stack.
+     *
+     * @param capacity Maximum number of moves that can be undone
+     */
+    public UndoStack(int capacity)
+    {
+        data = new int[capacity * STRIDE];
+        hashes = new long[capacity];
+    }
+
+    /**
+     * Returns the number of moves on the stack.
+     *
+     * @return Stack size
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of moves the stack can hold.
+     *
+     * @return Stack capacity
+     */
+    public int capacity()
+    {
+        return data.length / STRIDE;
+    }
+
+    /**
+     * Removes all records from the stack.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Reserves a new record and returns its offset in the data array.
+     *
+     * @return Record offset
+     */
+    int push()
+    {
+        int off = size * STRIDE;
+        if (off >= data.length)
+        {
+            throw new IllegalStateException("Undo stack is full (" + capacity() + " moves)");
+        }
+        size++;
+        return off;
+    }
+
+    /**
+     * Removes the top record and returns its offset in the data array.
+     *
+     * @return Record offset
+     */
+    int pop()
+    {
+        if (size == 0)
+        {
+            throw new IllegalStateException("Undo stack is empty");
+        }
+        size--;
+        return size * STRIDE;
+    }
+}
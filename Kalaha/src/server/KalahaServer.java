@@ -153,6 +153,7 @@ public class KalahaServer implements Runnable
         private boolean running;
         private ServerGUI g;
         private int iAmPlayer;
+        private char[] boardReply;
         
         /**
          * Creates and starts a new client thread.
@@ -165,6 +166,7 @@ public class KalahaServer implements Runnable
             this.socket = socket;
             this.iAmPlayer = iAmPlayer;
             g = ServerGUI.getInstance();
+            boardReply = new char[BoardCodec.MAX_LENGTH];
             
             running = true;
             Thread thr = new Thread(this);
@@ -203,13 +205,12 @@ public class KalahaServer implements Runnable
                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
                     String cmd = in.readLine();
-                    String reply;
 
                     while(cmd != null)
                     {
                         if (cmd.startsWith(Commands.HELLO))
                         {
-                            reply = Commands.HELLO + " " + iAmPlayer;
+                            out.println(Commands.HELLO + " " + iAmPlayer);
                             g.addText("Client " + iAmPlayer + " connected");
                             
                             if (iAmPlayer == 2)
@@ -220,61 +221,59 @@ public class KalahaServer implements Runnable
                         }
                         else if (cmd.startsWith(Commands.BOARD))
                         {
-                            reply = game.toString();
+                            sendBoard(out);
                         }
                         else if (cmd.startsWith(Commands.MOVE))
                         {
                             if (!gameIsFull())
                             {
-                                reply = Errors.GAME_NOT_FULL;
+                                out.println(Errors.GAME_NOT_FULL);
                             }
                             else
                             {
-                                reply = makeMove(cmd);
+                                makeMove(cmd, out);
                             }
                         }
                         else if (cmd.startsWith(Commands.NEXT_PLAYER))
                         {
                             if (!gameIsFull())
                             {
-                                reply = Errors.GAME_NOT_FULL;
+                                out.println(Errors.GAME_NOT_FULL);
                             }
                             else
                             {
-                                reply = "" + game.getNextPlayer();
+                                out.println(game.getNextPlayer());
                             }
                         }
                         else if (cmd.startsWith(Commands.NEW_GAME))
                         {
                             if (!gameIsFull())
                             {
-                                reply = Errors.GAME_NOT_FULL;
+                                out.println(Errors.GAME_NOT_FULL);
                             }
                             else
                             {
                                 g.addText("New game");
                                 game = new GameState();
-                                reply = game.toString();
+                                sendBoard(out);
                             }
                         }
                         else if (cmd.startsWith(Commands.WINNER))
                         {
                             if (!gameIsFull())
                             {
-                                reply = Errors.GAME_NOT_FULL;
+                                out.println(Errors.GAME_NOT_FULL);
                             }
                             else
                             {
-                                reply = "" + game.getWinner();
+                                out.println(game.getWinner());
                             }
                         }
                         else
                         {
-                            reply = Errors.CMD_NOT_FOUND;
+                            out.println(Errors.CMD_NOT_FOUND);
                         }
                         
-                        out.println(reply);
-                        
                         //Read new line
                         cmd = in.readLine();
                     }
@@ -289,12 +288,13 @@ public class KalahaServer implements Runnable
         }
         
         /**
-         * Tries to make the move a requested from the client.
+         * Tries to make the move a requested from the client, and replies
+         * with the new board or an error.
          * 
          * @param cmd Move command string
-         * @return Server reply
+         * @param out Client output stream
          */
-        public String makeMove(String cmd)
+        public void makeMove(String cmd, PrintWriter out)
         {
             String tokens[] = cmd.split(" ");
             int ambo;
@@ -302,7 +302,8 @@ public class KalahaServer implements Runnable
 
             if(tokens.length != 3)
             {
-                return Errors.INVALID_PARAMS;
+                out.println(Errors.INVALID_PARAMS);
+                return;
             }
 
             try
@@ -312,26 +313,30 @@ public class KalahaServer implements Runnable
             }
             catch(NumberFormatException ex)
             {
-                return Errors.INVALID_PARAMS;
+                out.println(Errors.INVALID_PARAMS);
+                return;
             }
             
             //Check if move is valid
             if (ambo < 1 || ambo > 6)
             {
-                return Errors.INVALID_MOVE;
+                out.println(Errors.INVALID_MOVE);
+                return;
             }
 
             //Check if the correct player is
             //making the move
             if(player != game.getNextPlayer())
             {
-                return Errors.WRONG_PLAYER;
+                out.println(Errors.WRONG_PLAYER);
+                return;
             }
 
             //Check if the ambo is empty
             if(game.getSeeds(ambo, player) == 0)
             {
-                return Errors.AMBO_EMPTY;
+                out.println(Errors.AMBO_EMPTY);
+                return;
             }
 
             //Make the move!
@@ -346,7 +351,20 @@ public class KalahaServer implements Runnable
             }
 
             //Valid move
-            return game.toString();
+            sendBoard(out);
+        }
+        
+        /**
+         * Sends the current board to the client, written directly
+         * from the game state without building a reply string.
+         * 
+         * @param out Client output stream
+         */
+        private void sendBoard(PrintWriter out)
+        {
+            int len = game.writeTo(boardReply, 0);
+            out.write(boardReply, 0, len);
+            out.println();
         }
     }
 }
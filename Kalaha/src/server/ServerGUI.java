@@ -233,25 +233,22 @@ public class ServerGUI implements ActionListener
      */
     public void updateBoard(GameState game)
     {
-        String board = game.toString();
-        String[] tokens = board.split(";");
-        
         //House_S
-        house_S.setText(tokens[GameState.HOUSE_S]);
+        house_S.setText(Integer.toString(game.getScore(1)));
 
         //South player ambos
         for (int i = GameState.START_S; i <= GameState.END_S; i++) 
         {
-            labels_S[i - GameState.START_S].setText(tokens[i]);
+            labels_S[i - GameState.START_S].setText(Integer.toString(game.getSeeds(i - GameState.START_S + 1, 1)));
         }
 
         //House_N
-        house_N.setText(tokens[GameState.HOUSE_N]);
+        house_N.setText(Integer.toString(game.getScore(2)));
         
         //North player ambos
         for (int i = GameState.START_N; i <= GameState.END_N; i++) 
         {
-            labels_N[i - GameState.START_N].setText(tokens[i]);
+            labels_N[i - GameState.START_N].setText(Integer.toString(game.getSeeds(i - GameState.START_N + 1, 2)));
         }
     }
 }